@@ -1,104 +1,307 @@
 package br.ufma.ecp;
 
-import static br.ufma.ecp.token.TokenType.*;
-
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-
-import br.ufma.ecp.token.Token; 
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class App 
 {
 
-    
-    public static void saveToFile(String fileName, String output) {
-  
-       
-        FileOutputStream outputStream;
+    // mapeia o arquivo em memoria: o Scanner le direto das paginas do arquivo, sem copias no heap
+    private static ByteBuffer fromFile(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    // peephole antes dos desvios tira os if-goto constantes; depois limpa o que o layout deixou
+    static void optimize(VMCode code, Map<String, Integer> optimizerHits) {
+        var peephole = new PeepholeOptimizer();
+        var branches = new BranchOptimizer();
+        var locals = new LocalSlotAllocator();
+        peephole.optimize(code);
+        branches.optimize(code);
+        peephole.optimize(code);
+        locals.optimize(code);
+        peephole.hits().forEach((rule, hits) -> optimizerHits.merge("peephole " + rule, hits, Integer::sum));
+        branches.hits().forEach((rule, hits) -> optimizerHits.merge("branch " + rule, hits, Integer::sum));
+        locals.hits().forEach((rule, hits) -> optimizerHits.merge("locals " + rule, hits, Integer::sum));
+    }
+
+    // resultado de um arquivo; o driver paralelo entrega na ordem dos nomes
+    static final class Compiled {
+        final File file;
+        final Diagnostics diagnostics = new Diagnostics();
+        final Map<String, Integer> optimizerHits = new LinkedHashMap<>();
+        // null se o arquivo tem erros
+        VMCode code;
+
+        Compiled(File file) {
+            this.file = file;
+        }
+    }
+
+    static Compiled compile(File file, CompilerOptions options) {
+        return compile(file, options, null, System.err);
+    }
+
+    // cache pode ser null; err recebe os avisos do cache
+    static Compiled compile(File file, CompilerOptions options, CompileCache cache, PrintStream err) {
+        var inputFileName = file.getAbsolutePath();
+        var pos = inputFileName.lastIndexOf('.');
+        var outputFileName = inputFileName.substring(0, pos) + ".vm";
+
+        var result = new Compiled(file);
+        var fileDiagnostics = result.diagnostics;
+        try {
+            // o mesmo mapeamento serve para a chave e para o Scanner: a chave e sempre do fonte compilado
+            ByteBuffer input = fromFile(file);
+            String key = null;
+            if (cache != null) {
+                key = CompileCache.key(input, options);
+                byte[] vm = cache.get(key);
+                if (vm != null) {
+                    if (!options.asm())
+                        Files.write(Path.of(outputFileName), vm);
+                    result.code = VMCode.parse(new String(vm, StandardCharsets.US_ASCII));
+                    return result;
+                }
+            }
+            var tokens = ParallelScanner.tokenize(input, file.getName(), fileDiagnostics);
+            var parser = new Parser(tokens, file.getName(), fileDiagnostics).withOptions(options);
+            parser.parse();
+            if (!fileDiagnostics.hasErrors() && options.optimize())
+                optimize(parser.vmCode(), result.optimizerHits);
+            if (!fileDiagnostics.hasErrors() && !options.asm()) {
+                try (var channel = FileChannel.open(Path.of(outputFileName),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    parser.writeVMOutput(channel);
+                }
+            }
+            if (!fileDiagnostics.hasErrors()) {
+                result.code = parser.vmCode();
+                // o mapeamento acompanha escritas no proprio arquivo: se ele mudou durante a
+                // compilacao, a saida nao corresponde a chave e nao vai para o cache
+                if (cache != null && key.equals(CompileCache.key(input, options)))
+                    store(cache, key, parser, err);
+            }
+        } catch (IOException e) {
+            fileDiagnostics.error(file.getName(), 0, 0, "cannot read file: " + e.getMessage());
+        } catch (RuntimeException e) {
+            // um arquivo com erro inesperado nao deve derrubar a compilacao dos demais
+            fileDiagnostics.error(file.getName(), 0, 0, "internal compiler error: " + e);
+        }
+        return result;
+    }
+
+    // o cache e so um atalho: uma falha ao gravar nele nao e erro de compilacao
+    private static void store(CompileCache cache, String key, Parser parser, PrintStream err) {
         try {
-            outputStream = new FileOutputStream(fileName);
-            byte[] strToBytes = output.getBytes();
-            outputStream.write(strToBytes);
-    
-            outputStream.close();
-        } catch (FileNotFoundException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            cache.put(key, parser.VMOutput().getBytes(StandardCharsets.US_ASCII));
         } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            err.println("cannot store in cache: " + e.getMessage());
         }
     }
 
+    private static String baseName(File file) {
+        var name = file.getName();
+        var pos = name.lastIndexOf('.');
+        return pos < 0 ? name : name.substring(0, pos);
+    }
 
-    private static String fromFile(File file) {        
+    // todas as classes num .asm so; os .vm sem .jack correspondente (o OS, por exemplo) entram junto
+    private static void writeAsm(File file, Map<String, VMCode> units, Diagnostics diagnostics) {
+        boolean directory = file.isDirectory();
+        File output;
+        if (directory) {
+            var vmFiles = file.listFiles((dir, name) -> name.endsWith(".vm"));
+            Arrays.sort(vmFiles);
+            for (File vm : vmFiles) {
+                if (units.containsKey(baseName(vm)))
+                    continue;
+                try {
+                    units.put(baseName(vm), VMCode.parse(Files.readString(vm.toPath())));
+                } catch (IOException | IllegalArgumentException e) {
+                    diagnostics.error(vm.getName(), 0, 0, "cannot read VM file: " + e.getMessage());
+                    return;
+                }
+            }
+            output = new File(file, file.getName() + ".asm");
+        } else {
+            output = new File(file.getParentFile(), baseName(file) + ".asm");
+        }
 
-        byte[] bytes;
+        var writer = new HackAsmWriter(directory);
+        units.forEach(writer::translate);
         try {
-            bytes = Files.readAllBytes(file.toPath());
-            String textoDoArquivo = new String(bytes, "UTF-8");
-            return textoDoArquivo;
+            Files.writeString(output.toPath(), writer.output());
         } catch (IOException e) {
-            e.printStackTrace();
+            diagnostics.error(output.getName(), 0, 0, "cannot write file: " + e.getMessage());
         }
-        return "";
-    } 
+    }
 
 
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.err.println("Please provide a single file path argument.");
+        CompilerOptions options = null;
+        try {
+            options = CompilerOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(CompilerOptions.USAGE);
             System.exit(1);
         }
 
-        File file = new File(args[0]);
+        if (options.daemon()) {
+            CompileDaemon.serve(options.port());
+            return;
+        }
+        if (options.watch()) {
+            int status = BuildWatcher.watch(options, System.out, System.err);
+            if (status != 0)
+                System.exit(status);
+            return;
+        }
+        if (options.client()) {
+            // sem daemon no ar, compila aqui mesmo
+            Integer status = CompileDaemon.forward(args, System.out, System.err);
+            if (status != null) {
+                if (status != 0)
+                    System.exit(status);
+                return;
+            }
+        }
+
+        int status = build(options, System.out, System.err);
+        if (status != 0)
+            System.exit(status);
+    }
+
+    // compila o que options pede, com as mensagens em out e os erros em err; devolve o codigo
+    // de saida. O daemon chama direto, com out e err indo para a resposta
+    static int build(CompilerOptions options, PrintStream out, PrintStream err) {
+        File file = new File(options.path());
 
         if (!file.exists()) {
-            System.err.println("The file doesn't exist.");
-            System.exit(1);
+            err.println("The file doesn't exist.");
+            return 1;
         }
 
+        var diagnostics = new Diagnostics();
+        Map<String, Integer> optimizerHits = new LinkedHashMap<>();
+        Map<String, VMCode> units = new LinkedHashMap<>();
+
+        List<File> sources = new ArrayList<>();
         // we need to compile every file in the directory
         if (file.isDirectory()) {
-            for (File f : file.listFiles()) {
-                if (f.isFile() && f.getName().endsWith(".jack")) {
-
-                    var inputFileName = f.getAbsolutePath();
-                    var pos = inputFileName.lastIndexOf('.');
-                    var outputFileName = inputFileName.substring(0, pos) + ".vm";
-                    
-                    System.out.println("compiling " +  inputFileName);
-                    var input = fromFile(f);
-                    var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
-                    parser.parse();
-                    var result = parser.VMOutput();
-                    saveToFile(outputFileName, result);
-                }
-
+            var files = file.listFiles();
+            Arrays.sort(files);
+            for (File f : files) {
+                if (f.isFile() && f.getName().endsWith(".jack"))
+                    sources.add(f);
             }
         // we only compile the single file
         } else if (file.isFile()) {
             if (!file.getName().endsWith(".jack"))  {
-                System.err.println("Please provide a file name ending with .jack");
-                System.exit(1);
-            } else {
-                var inputFileName = file.getAbsolutePath();
-                var pos = inputFileName.lastIndexOf('.');
-                var outputFileName = inputFileName.substring(0, pos) + ".vm";
-                
-                System.out.println("compiling " +  inputFileName);
-                var input = fromFile(file);
-                var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
-                parser.parse();
-                var result = parser.VMOutput();
-                saveToFile(outputFileName, result);
-                
+                err.println("Please provide a file name ending with .jack");
+                return 1;
+            }
+            sources.add(file);
+        }
+
+        // com --asm todos os fontes entram no .asm, entao nada pode ser pulado
+        BuildManifest manifest = null;
+        Map<File, String> hashes = new HashMap<>();
+        String settings = BuildManifest.settings(options);
+        if (options.incremental() && !options.asm()) {
+            manifest = BuildManifest.load(file.isDirectory() ? file : file.getAbsoluteFile().getParentFile());
+            if (file.isDirectory())
+                manifest.removeStale(sources).forEach(vm -> out.println("removed stale " + vm));
+            List<File> changed = new ArrayList<>();
+            for (File source : sources) {
+                try {
+                    hashes.put(source, BuildManifest.hash(source));
+                } catch (IOException e) {
+                    // compile vai reportar o erro de leitura
+                }
+                if (hashes.containsKey(source) && manifest.upToDate(source, hashes.get(source), settings))
+                    continue;
+                changed.add(source);
             }
+            if (changed.size() < sources.size())
+                out.println((sources.size() - changed.size()) + " file(s) up to date");
+            sources = changed;
+        }
+
+        CompileCache cache = null;
+        if (options.cache() != null) {
+            try {
+                cache = new CompileCache(Path.of(options.cache()), options.cacheSize());
+            } catch (IOException e) {
+                err.println("cache disabled: " + e.getMessage());
+            }
+        }
+
+        var compilerOptions = options;
+        var buildManifest = manifest;
+        var compileCache = cache;
+        int skipped = new ParallelCompiler(options, err).run(sources, f -> compile(f, compilerOptions, compileCache, err),
+                compiled -> compiled.diagnostics.hasErrors(), compiled -> {
+                    out.println("compiling " + compiled.file.getAbsolutePath());
+                    diagnostics.addAll(compiled.diagnostics);
+                    if (buildManifest != null) {
+                        // arquivo com erro sai do manifesto para ser recompilado da proxima vez
+                        if (compiled.code != null && hashes.containsKey(compiled.file))
+                            buildManifest.record(compiled.file, hashes.get(compiled.file), settings);
+                        else
+                            buildManifest.remove(compiled.file);
+                    }
+                    compiled.optimizerHits.forEach((rule, hits) -> optimizerHits.merge(rule, hits, Integer::sum));
+                    if (compiled.code != null)
+                        units.put(baseName(compiled.file), compiled.code);
+                });
+        if (skipped > 0)
+            err.println(skipped + " file(s) not compiled after the first error");
+
+        if (cache != null) {
+            try {
+                cache.trim();
+            } catch (IOException e) {
+                err.println("cannot trim cache: " + e.getMessage());
+            }
+            out.println(cache.stats());
+        }
+
+        if (manifest != null) {
+            try {
+                manifest.save();
+            } catch (IOException e) {
+                diagnostics.error(BuildManifest.FILE_NAME, 0, 0, "cannot write manifest: " + e.getMessage());
+            }
+        }
+
+        if (options.asm() && !diagnostics.hasErrors())
+            writeAsm(file, units, diagnostics);
+
+        if (options.optimize())
+            optimizerHits.forEach((rule, hits) -> out.println(rule + ": " + hits));
+
+        if (diagnostics.hasErrors()) {
+            diagnostics.report(err);
+            return 1;
         }
+        return 0;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,256 @@
+package br.ufma.ecp;
+
+import static br.ufma.ecp.VMCode.*;
+import static br.ufma.ecp.ControlFlowGraph.FALL;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import br.ufma.ecp.ControlFlowGraph.Block;
+import br.ufma.ecp.VMWriter.Command;
+
+/*
+ * Otimizacao de desvios sobre o grafo de fluxo de cada funcao:
+ *
+ *   - desvios para blocos vazios que so desviam ou caem em outro vao direto ao destino final
+ *   - blocos que nao se alcancam a partir da entrada (codigo depois de return/goto) somem
+ *   - labels seguidos viram um so, e labels que ninguem usa nao sao emitidos
+ *   - os blocos sao dispostos em cadeias para que o sucessor caia direto, sem goto;
+ *     um if-goto cujo destino fica logo abaixo tem a condicao invertida quando ela e
+ *     booleana (0 ou -1), porque not so inverte esses dois valores
+ */
+public class BranchOptimizer {
+
+    private static final int NOT = encode(ARITHMETIC, Command.NOT.ordinal());
+
+    private VMCode code;
+
+    private int threaded;
+    private int unreachable;
+    private int inverted;
+    private int gotosRemoved;
+
+    public void optimize(VMCode code) {
+        this.code = code;
+        int size = code.size();
+        int[] out = new int[size * 2 + 16];
+        int outSize = 0;
+
+        int from = 0;
+        while (from < size) {
+            int to = from + 1;
+            while (to < size && opcode(code.instruction(to)) != FUNCTION)
+                to++;
+            var graph = opcode(code.instruction(from)) == FUNCTION ? ControlFlowGraph.build(code, from, to) : null;
+            int[] function = graph == null ? copy(code, from, to) : layout(graph);
+            if (outSize + function.length > out.length)
+                out = Arrays.copyOf(out, (outSize + function.length) * 2);
+            System.arraycopy(function, 0, out, outSize, function.length);
+            outSize += function.length;
+            from = to;
+        }
+
+        code.truncate(0);
+        for (int i = 0; i < outSize; i++)
+            code.add(out[i]);
+    }
+
+    private static int[] copy(VMCode code, int from, int to) {
+        int[] result = new int[to - from];
+        for (int i = from; i < to; i++)
+            result[i - from] = code.instruction(i);
+        return result;
+    }
+
+    // segue blocos vazios que so desviam (ou caem) ate o primeiro bloco com codigo
+    private Block thread(Block block, int limit) {
+        Block b = block;
+        for (int steps = 0; b != null && b.body.length == 0 && steps < limit; steps++) {
+            if (b.branch == GOTO)
+                b = b.target;
+            else if (b.branch == FALL && b.next != null)
+                b = b.next;
+            else
+                break;
+        }
+        return b;
+    }
+
+    private int[] layout(ControlFlowGraph graph) {
+        List<Block> blocks = graph.blocks();
+        int limit = blocks.size();
+
+        for (Block block : blocks) {
+            if (block.target != null) {
+                Block t = thread(block.target, limit);
+                if (t != null && t != block.target) {
+                    block.target = t;
+                    threaded++;
+                }
+            }
+            if (block.next != null && (block.branch == FALL || block.branch == IF_GOTO)) {
+                Block n = thread(block.next, limit);
+                if (n != null && n != block.next)
+                    block.next = n;
+            }
+        }
+
+        // alcancaveis a partir da entrada
+        boolean[] reachable = new boolean[blocks.size()];
+        var work = new ArrayDeque<Block>();
+        work.push(blocks.get(0));
+        reachable[0] = true;
+        while (!work.isEmpty()) {
+            for (Block s : work.pop().successors()) {
+                if (!reachable[s.index]) {
+                    reachable[s.index] = true;
+                    work.push(s);
+                }
+            }
+        }
+        for (Block block : blocks)
+            if (!reachable[block.index] && (block.body.length > 0 || block.branch != FALL))
+                unreachable++;
+
+        // primeiro bloco alcancavel depois de cada um, na ordem original
+        Block[] following = new Block[blocks.size()];
+        for (int b = blocks.size() - 2; b >= 0; b--) {
+            Block after = blocks.get(b + 1);
+            following[b] = reachable[after.index] ? after : following[b + 1];
+        }
+
+        int[] predecessors = new int[blocks.size()];
+        for (Block block : blocks)
+            if (reachable[block.index])
+                for (Block s : block.successors())
+                    predecessors[s.index]++;
+
+        // cadeias: cada bloco puxa para logo depois dele o sucessor que pode cair direto
+        List<Block> order = new ArrayList<>();
+        boolean[] placed = new boolean[blocks.size()];
+        for (Block start : blocks) {
+            Block b = start;
+            while (b != null && reachable[b.index] && !placed[b.index]) {
+                placed[b.index] = true;
+                order.add(b);
+                b = preferredSuccessor(b, following[b.index], placed, predecessors);
+            }
+        }
+
+        // decide os desvios de cada bloco e quais blocos precisam de label
+        int n = order.size();
+        int[][] bodies = new int[n][];
+        int[][] tails = new int[n][];
+        boolean[] targeted = new boolean[blocks.size()];
+        for (int i = 0; i < n; i++) {
+            Block b = order.get(i);
+            Block after = i + 1 < n ? order.get(i + 1) : null;
+            int[] body = b.body;
+            List<Integer> tail = new ArrayList<>(2);
+            switch (b.branch) {
+                case RETURN -> tail.add(encode(RETURN, 0));
+                case GOTO -> {
+                    if (b.target != after) {
+                        tail.add(jump(GOTO, b.target, graph));
+                        targeted[b.target.index] = true;
+                    } else {
+                        gotosRemoved++;
+                    }
+                }
+                case IF_GOTO -> {
+                    Block taken = b.target;
+                    Block fall = b.next;
+                    if (taken == fall) {
+                        // os dois caminhos vao ao mesmo lugar: so descarta a condicao
+                        body = Arrays.copyOf(body, body.length + 1);
+                        body[body.length - 1] = encode(POP, code.memoryPayload(VMWriter.Segment.TEMP, 0));
+                        taken = null;
+                    } else if (taken == after && PeepholeOptimizer.endsWithBoolean(body, body.length)) {
+                        body = invert(body);
+                        taken = fall;
+                        fall = after;
+                        inverted++;
+                    }
+                    if (taken != null) {
+                        tail.add(jump(IF_GOTO, taken, graph));
+                        targeted[taken.index] = true;
+                    }
+                    if (fall != null && fall != after) {
+                        tail.add(jump(GOTO, fall, graph));
+                        targeted[fall.index] = true;
+                    }
+                }
+                default -> {
+                    if (b.next != null && b.next != after) {
+                        tail.add(jump(GOTO, b.next, graph));
+                        targeted[b.next.index] = true;
+                    }
+                }
+            }
+            bodies[i] = body;
+            tails[i] = tail.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        int total = 1;
+        for (int i = 0; i < n; i++)
+            total += 1 + bodies[i].length + tails[i].length;
+        int[] result = new int[total];
+        int size = 0;
+        result[size++] = graph.header();
+        for (int i = 0; i < n; i++) {
+            Block b = order.get(i);
+            if (targeted[b.index])
+                result[size++] = encode(LABEL, graph.labelOf(b));
+            System.arraycopy(bodies[i], 0, result, size, bodies[i].length);
+            size += bodies[i].length;
+            System.arraycopy(tails[i], 0, result, size, tails[i].length);
+            size += tails[i].length;
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    private static int jump(int opcode, Block target, ControlFlowGraph graph) {
+        return encode(opcode, graph.labelOf(target));
+    }
+
+    // cond; not -> cond e cond -> cond; not
+    private static int[] invert(int[] body) {
+        if (body.length > 0 && body[body.length - 1] == NOT)
+            return Arrays.copyOf(body, body.length - 1);
+        int[] result = Arrays.copyOf(body, body.length + 1);
+        result[body.length] = NOT;
+        return result;
+    }
+
+    private static Block preferredSuccessor(Block b, Block following, boolean[] placed, int[] predecessors) {
+        switch (b.branch) {
+            case FALL:
+                return b.next;
+            case GOTO:
+                // so puxa o destino se ninguem mais chega nele: tira um goto sem criar outro
+                return predecessors[b.target.index] == 1 ? b.target : null;
+            case IF_GOTO:
+                // mantem a ordem original: o bloco que vinha logo depois continua logo depois
+                if (b.next == following || b.target == following)
+                    return following;
+                if (b.next == null || placed[b.next.index])
+                    return b.target;
+                return b.next;
+            default:
+                return null;
+        }
+    }
+
+    public Map<String, Integer> hits() {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        result.put("threaded", threaded);
+        result.put("unreachable", unreachable);
+        result.put("inverted", inverted);
+        result.put("gotos-removed", gotosRemoved);
+        return result;
+    }
+}
@@ -0,0 +1,136 @@
+package br.ufma.ecp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/*
+ * Manifesto da compilacao incremental (--incremental), guardado junto dos .vm. Para cada
+ * .jack compilado sem erros registra o SHA-256 do fonte, a versao do compilador e as
+ * opcoes que mudam a saida. Um arquivo so e recompilado se algum dos tres mudou ou se o
+ * .vm sumiu. Os .vm de fontes que foram apagados sao removidos; .vm que o manifesto nao
+ * conhece (o OS, por exemplo) nunca sao tocados.
+ *
+ * Formato: uma linha por arquivo, com nome, hash, versao e opcoes separados por tab.
+ */
+public class BuildManifest {
+
+    public static final String FILE_NAME = ".jack-manifest";
+
+    // mude sempre que o codigo gerado para o mesmo fonte e as mesmas opcoes mudar
+    static final String COMPILER_VERSION = "1";
+
+    private static final String HEADER = "# jack build manifest";
+
+    record Entry(String hash, String version, String settings) {
+    }
+
+    private final File directory;
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    private BuildManifest(File directory) {
+        this.directory = directory;
+    }
+
+    // manifesto do diretorio; um arquivo ausente ou ilegivel vale como manifesto vazio
+    public static BuildManifest load(File directory) {
+        var manifest = new BuildManifest(directory);
+        File file = new File(directory, FILE_NAME);
+        if (!file.isFile())
+            return manifest;
+        try {
+            for (String line : Files.readAllLines(file.toPath())) {
+                String[] fields = line.split("\t");
+                if (line.startsWith("#") || fields.length != 4)
+                    continue;
+                manifest.entries.put(fields[0], new Entry(fields[1], fields[2], fields[3]));
+            }
+        } catch (IOException e) {
+            manifest.entries.clear();
+        }
+        return manifest;
+    }
+
+    // opcoes que mudam o .vm gerado
+    public static String settings(CompilerOptions options) {
+        List<String> settings = new ArrayList<>();
+        if (options.optimize())
+            settings.add("-O");
+        if (options.stringPool())
+            settings.add("--string-pool");
+        return settings.isEmpty() ? "-" : String.join(" ", settings);
+    }
+
+    public static String hash(File source) throws IOException {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(source.toPath()));
+            var hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+                hex.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String vmName(String source) {
+        return source.substring(0, source.length() - ".jack".length()) + ".vm";
+    }
+
+    public boolean upToDate(File source, String hash, String settings) {
+        var entry = entries.get(source.getName());
+        return entry != null
+                && entry.equals(new Entry(hash, COMPILER_VERSION, settings))
+                && new File(directory, vmName(source.getName())).isFile();
+    }
+
+    public void record(File source, String hash, String settings) {
+        entries.put(source.getName(), new Entry(hash, COMPILER_VERSION, settings));
+    }
+
+    public void remove(File source) {
+        entries.remove(source.getName());
+    }
+
+    // apaga os .vm de fontes que nao existem mais; devolve os .vm apagados
+    public List<String> removeStale(List<File> sources) {
+        Set<String> names = new HashSet<>();
+        for (File source : sources)
+            names.add(source.getName());
+        List<String> removed = new ArrayList<>();
+        for (var it = entries.keySet().iterator(); it.hasNext();) {
+            String name = it.next();
+            if (names.contains(name))
+                continue;
+            it.remove();
+            File vm = new File(directory, vmName(name));
+            if (vm.delete())
+                removed.add(vm.getName());
+        }
+        return removed;
+    }
+
+    // escreve num temporario e renomeia, para nunca deixar um manifesto pela metade
+    public void save() throws IOException {
+        var text = new StringBuilder(HEADER).append('\n');
+        entries.forEach((name, entry) -> text.append(name).append('\t').append(entry.hash()).append('\t')
+                .append(entry.version()).append('\t').append(entry.settings()).append('\n'));
+        var target = new File(directory, FILE_NAME).toPath();
+        var temp = Files.createTempFile(directory.toPath(), FILE_NAME, ".tmp");
+        try {
+            Files.writeString(temp, text);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package br.ufma.ecp;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Modo --watch: compila tudo uma vez e fica olhando o diretorio dos fontes com o
+ * WatchService, recompilando na mesma JVM so os .jack que mudaram. Eventos que chegam em
+ * rajada (o editor grava, renomeia, grava de novo) sao juntados ate o diretorio ficar
+ * DEBOUNCE_MILLIS sem eventos; um arquivo salvo com o mesmo conteudo da ultima compilacao
+ * sem erros nao e recompilado.
+ *
+ * O cache e o manifesto (--cache, --incremental) sao abertos uma vez e atualizados a cada
+ * rodada. Com --asm todas as classes entram no mesmo .asm, entao cada rodada refaz a
+ * compilacao inteira.
+ */
+public class BuildWatcher {
+
+    static final long DEBOUNCE_MILLIS = 100;
+
+    private record Timed(App.Compiled compiled, long nanos) {
+    }
+
+    private final CompilerOptions options;
+    private final PrintStream out;
+    private final PrintStream err;
+
+    private final File directory;
+    // null: o diretorio inteiro
+    private final String single;
+
+    private final WatchService watcher;
+    // hash do conteudo da ultima compilacao sem erros de cada fonte
+    private final Map<String, String> hashes = new HashMap<>();
+    private BuildManifest manifest;
+    private CompileCache cache;
+
+    public BuildWatcher(CompilerOptions options, PrintStream out, PrintStream err) throws IOException {
+        this.options = options;
+        this.out = out;
+        this.err = err;
+        File file = new File(options.path()).getAbsoluteFile();
+        this.directory = file.isDirectory() ? file : file.getParentFile();
+        this.single = file.isDirectory() ? null : file.getName();
+        this.watcher = FileSystems.getDefault().newWatchService();
+    }
+
+    // App --watch: so volta se o diretorio sumir ou der erro
+    static int watch(CompilerOptions options, PrintStream out, PrintStream err) {
+        if (!new File(options.path()).exists()) {
+            err.println("The file doesn't exist.");
+            return 1;
+        }
+        try {
+            new BuildWatcher(options, out, err).run();
+            return 0;
+        } catch (IOException e) {
+            err.println("cannot watch " + options.path() + ": " + e.getMessage());
+            return 1;
+        }
+    }
+
+    public void stop() throws IOException {
+        watcher.close();
+    }
+
+    public void run() throws IOException {
+        // registra antes da primeira compilacao para nao perder um save feito durante ela
+        directory.toPath().register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        // se a primeira compilacao falhou nao se sabe quais arquivos estao bons: nada e anotado
+        if (App.build(options, out, err) == 0) {
+            for (File source : sources()) {
+                String hash = hash(source);
+                if (hash != null)
+                    hashes.put(source.getName(), hash);
+            }
+        }
+        if (options.incremental() && !options.asm())
+            manifest = BuildManifest.load(directory);
+        if (options.cache() != null)
+            cache = new CompileCache(Path.of(options.cache()), options.cacheSize());
+        out.println("watching " + directory);
+
+        try {
+            while (true) {
+                Set<String> changed = new TreeSet<>();
+                WatchKey key = watcher.take();
+                boolean overflow = collect(key, changed);
+                // debounce: continua juntando ate DEBOUNCE_MILLIS sem eventos
+                while ((key = watcher.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null)
+                    overflow |= collect(key, changed);
+                if (overflow)
+                    sources().forEach(source -> changed.add(source.getName()));
+                if (!changed.isEmpty())
+                    rebuild(changed);
+            }
+        } catch (ClosedWatchServiceException e) {
+            // stop()
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // junta os .jack dos eventos em changed; devolve true se o sistema perdeu eventos
+    private boolean collect(WatchKey key, Set<String> changed) {
+        boolean overflow = false;
+        for (var event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            String name = event.context().toString();
+            if (name.endsWith(".jack") && (single == null || name.equals(single)))
+                changed.add(name);
+        }
+        if (!key.reset()) {
+            // diretorio apagado: fechar faz o laco de run() terminar
+            err.println("stopped watching: " + directory + " is gone");
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                // ja nao ha o que olhar
+            }
+        }
+        return overflow;
+    }
+
+    private List<File> sources() {
+        List<File> sources = new ArrayList<>();
+        var files = directory.listFiles((dir, name) -> name.endsWith(".jack") && (single == null || name.equals(single)));
+        if (files != null) {
+            for (File f : files)
+                if (f.isFile())
+                    sources.add(f);
+        }
+        sources.sort(null);
+        return sources;
+    }
+
+    // null se o arquivo nao pode ser lido; compile vai reportar o erro
+    private static String hash(File source) {
+        try {
+            return BuildManifest.hash(source);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void rebuild(Set<String> changed) {
+        long start = System.nanoTime();
+        if (options.asm()) {
+            App.build(options, out, err);
+            out.println(String.format("rebuilt %s in %.1f ms", directory.getName() + ".asm", millis(start)));
+            return;
+        }
+
+        List<File> sources = new ArrayList<>();
+        // o hash so vai para hashes se o arquivo compilar: uma falha passageira (arquivo ainda
+        // sendo gravado, erro de leitura) e tentada de novo no proximo evento
+        Map<String, String> batch = new HashMap<>();
+        for (String name : changed) {
+            File source = new File(directory, name);
+            if (source.isFile()) {
+                String hash = hash(source);
+                if (hash != null && hash.equals(hashes.get(name)))
+                    continue;
+                batch.put(name, hash);
+                sources.add(source);
+                continue;
+            }
+            // fonte apagado: o .vm dele tambem sai
+            hashes.remove(name);
+            if (manifest != null)
+                manifest.remove(source);
+            File vm = new File(directory, name.substring(0, name.length() - ".jack".length()) + ".vm");
+            if (vm.delete())
+                out.println("removed " + vm.getName());
+        }
+
+        var diagnostics = new Diagnostics();
+        String settings = BuildManifest.settings(options);
+        new ParallelCompiler(options, err).run(sources, f -> {
+            long t = System.nanoTime();
+            var compiled = App.compile(f, options, cache, err);
+            return new Timed(compiled, System.nanoTime() - t);
+        }, timed -> timed.compiled().diagnostics.hasErrors(), timed -> {
+            var compiled = timed.compiled();
+            diagnostics.addAll(compiled.diagnostics);
+            out.println(String.format("%s %s in %.1f ms", compiled.code != null ? "compiled" : "failed",
+                    compiled.file.getName(), timed.nanos() / 1e6));
+            String name = compiled.file.getName();
+            String hash = batch.get(name);
+            boolean ok = compiled.code != null && hash != null;
+            if (ok)
+                hashes.put(name, hash);
+            else
+                hashes.remove(name);
+            if (manifest != null) {
+                if (ok)
+                    manifest.record(compiled.file, hash, settings);
+                else
+                    manifest.remove(compiled.file);
+            }
+        });
+
+        if (cache != null) {
+            try {
+                cache.trim();
+            } catch (IOException e) {
+                err.println("cannot trim cache: " + e.getMessage());
+            }
+        }
+        if (manifest != null) {
+            try {
+                manifest.save();
+            } catch (IOException e) {
+                err.println("cannot write manifest: " + e.getMessage());
+            }
+        }
+        if (diagnostics.hasErrors())
+            diagnostics.report(err);
+        if (!sources.isEmpty())
+            out.println(String.format("rebuilt %d file(s) in %.1f ms", sources.size(), millis(start)));
+    }
+
+    private static double millis(long start) {
+        return (System.nanoTime() - start) / 1e6;
+    }
+}
@@ -0,0 +1,198 @@
+package br.ufma.ecp;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Escreve um class file da JVM com o minimo que o backend precisa: pool de constantes,
+ * campos estaticos e metodos com o atributo Code. A versao e 49 (Java 5), a ultima que
+ * nao exige StackMapTable: o verificador infere os tipos sozinho.
+ */
+class ClassFileWriter {
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_SUPER = 0x0020;
+
+    private static final int VERSION = 49;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    // buffer sem IOException
+    static final class Bytes extends ByteArrayOutputStream {
+        void u1(int b) {
+            write(b);
+        }
+
+        void u2(int v) {
+            write(v >>> 8);
+            write(v);
+        }
+
+        void u4(int v) {
+            u2(v >>> 16);
+            u2(v);
+        }
+
+        void bytes(byte[] b) {
+            write(b, 0, b.length);
+        }
+
+        int position() {
+            return count;
+        }
+
+        // sobrescreve dois bytes ja escritos
+        void patch2(int position, int v) {
+            buf[position] = (byte) (v >>> 8);
+            buf[position + 1] = (byte) v;
+        }
+    }
+
+    private final Bytes pool = new Bytes();
+    private final Map<String, Integer> constants = new HashMap<>();
+    private int poolCount = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    private final Bytes fields = new Bytes();
+    private int fieldCount;
+    private final Bytes methods = new Bytes();
+    private int methodCount;
+
+    // name no formato interno (pacote/Classe)
+    ClassFileWriter(String name) {
+        thisClass = classRef(name);
+        superClass = classRef("java/lang/Object");
+    }
+
+    // ---------- pool de constantes ----------
+
+    private int constant(String key, Runnable write) {
+        Integer index = constants.get(key);
+        if (index == null) {
+            write.run();
+            index = poolCount++;
+            if (poolCount > 0xFFFF)
+                throw new IllegalStateException("constant pool too large");
+            constants.put(key, index);
+        }
+        return index;
+    }
+
+    int utf8(String value) {
+        return constant("U" + value, () -> {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            pool.u1(CONSTANT_UTF8);
+            pool.u2(bytes.length);
+            pool.bytes(bytes);
+        });
+    }
+
+    int integer(int value) {
+        return constant("I" + value, () -> {
+            pool.u1(CONSTANT_INTEGER);
+            pool.u4(value);
+        });
+    }
+
+    int classRef(String name) {
+        int nameIndex = utf8(name);
+        return constant("C" + name, () -> {
+            pool.u1(CONSTANT_CLASS);
+            pool.u2(nameIndex);
+        });
+    }
+
+    int string(String value) {
+        int valueIndex = utf8(value);
+        return constant("S" + value, () -> {
+            pool.u1(CONSTANT_STRING);
+            pool.u2(valueIndex);
+        });
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        return constant("N" + name + " " + descriptor, () -> {
+            pool.u1(CONSTANT_NAME_AND_TYPE);
+            pool.u2(nameIndex);
+            pool.u2(descriptorIndex);
+        });
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int classIndex = classRef(owner);
+        int nameAndTypeIndex = nameAndType(name, descriptor);
+        return constant(tag + owner + "." + name + " " + descriptor, () -> {
+            pool.u1(tag);
+            pool.u2(classIndex);
+            pool.u2(nameAndTypeIndex);
+        });
+    }
+
+    // ---------- membros ----------
+
+    void field(int access, String name, String descriptor) {
+        fields.u2(access);
+        fields.u2(utf8(name));
+        fields.u2(utf8(descriptor));
+        fields.u2(0);
+        fieldCount++;
+    }
+
+    void method(int access, String name, String descriptor, int maxStack, int maxLocals, byte[] code) {
+        if (code.length > 0xFFFF)
+            throw new IllegalStateException("method too large: " + name);
+        methods.u2(access);
+        methods.u2(utf8(name));
+        methods.u2(utf8(descriptor));
+        methods.u2(1);
+        methods.u2(utf8("Code"));
+        methods.u4(12 + code.length);
+        methods.u2(maxStack);
+        methods.u2(maxLocals);
+        methods.u4(code.length);
+        methods.bytes(code);
+        // sem tabela de excecoes e sem atributos
+        methods.u2(0);
+        methods.u2(0);
+        methodCount++;
+    }
+
+    byte[] toByteArray() {
+        var out = new Bytes();
+        out.u4(0xCAFEBABE);
+        out.u2(0);
+        out.u2(VERSION);
+        out.u2(poolCount);
+        out.bytes(pool.toByteArray());
+        out.u2(ACC_PUBLIC | ACC_SUPER);
+        out.u2(thisClass);
+        out.u2(superClass);
+        out.u2(0);
+        out.u2(fieldCount);
+        out.bytes(fields.toByteArray());
+        out.u2(methodCount);
+        out.bytes(methods.toByteArray());
+        out.u2(0);
+        return out.toByteArray();
+    }
+}
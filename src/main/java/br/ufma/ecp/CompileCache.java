@@ -0,0 +1,153 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/*
+ * Cache de compilacao enderecado por conteudo (--cache DIR), que pode ser compartilhado
+ * por varios projetos e varias JVMs na mesma maquina. A chave e o SHA-256 dos bytes do
+ * fonte junto com a versao do compilador e as opcoes que mudam a saida; o valor e o .vm.
+ *
+ * Entradas sao gravadas num temporario e renomeadas atomicamente, entao quem le nunca ve
+ * um .vm pela metade e duas JVMs gravando a mesma chave escrevem o mesmo conteudo. A data
+ * de modificacao de cada entrada e atualizada a cada acerto e serve de data de ultimo
+ * uso: trim() apaga as menos usadas ate o total caber no limite, com um lock de arquivo
+ * para que duas JVMs nao limpem o cache ao mesmo tempo. Uma entrada apagada entre a
+ * busca e a leitura conta como falta.
+ */
+public class CompileCache {
+
+    public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+    private static final String ENTRY = ".vm";
+    private static final String LOCK = ".lock";
+
+    private final Path root;
+    private final long maxBytes;
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private final AtomicInteger stores = new AtomicInteger();
+    private final AtomicInteger evictions = new AtomicInteger();
+
+    public CompileCache(Path root, long maxBytes) throws IOException {
+        this.root = root;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(root);
+    }
+
+    // source e lido por uma copia da visao (duplicate), entao a posicao dele nao muda
+    public static String key(ByteBuffer source, CompilerOptions options) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(source.duplicate());
+            digest.update((byte) 0);
+            digest.update(BuildManifest.COMPILER_VERSION.getBytes());
+            digest.update((byte) 0);
+            digest.update(BuildManifest.settings(options).getBytes());
+            var hex = new StringBuilder(64);
+            for (byte b : digest.digest())
+                hex.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // dois niveis, como o git: ab/cdef....vm
+    private Path path(String key) {
+        return root.resolve(key.substring(0, 2)).resolve(key.substring(2) + ENTRY);
+    }
+
+    // o .vm guardado, ou null
+    public byte[] get(String key) {
+        Path path = path(key);
+        try {
+            byte[] vm = Files.readAllBytes(path);
+            try {
+                Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (IOException e) {
+                // apagada depois da leitura: o conteudo lido continua valendo
+            }
+            hits.incrementAndGet();
+            return vm;
+        } catch (IOException e) {
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void put(String key, byte[] vm) throws IOException {
+        Path path = path(key);
+        Files.createDirectories(path.getParent());
+        Path temp = Files.createTempFile(path.getParent(), "entry", ".tmp");
+        try {
+            Files.write(temp, vm);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            stores.incrementAndGet();
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // apaga as entradas usadas ha mais tempo ate o cache caber em maxBytes
+    public synchronized void trim() throws IOException {
+        try (var channel = FileChannel.open(root.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // o lock vale ate o canal ser fechado
+            channel.lock();
+            List<Path> entries = new ArrayList<>();
+            try (Stream<Path> files = Files.walk(root, 2)) {
+                files.filter(p -> p.getFileName().toString().endsWith(ENTRY)).forEach(entries::add);
+            }
+            List<long[]> info = new ArrayList<>();
+            long total = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                try {
+                    long size = Files.size(entries.get(i));
+                    info.add(new long[] { i, Files.getLastModifiedTime(entries.get(i)).toMillis(), size });
+                    total += size;
+                } catch (NoSuchFileException e) {
+                    // outra JVM apagou
+                }
+            }
+            info.sort(Comparator.comparingLong((long[] e) -> e[1]));
+            for (long[] entry : info) {
+                if (total <= maxBytes)
+                    break;
+                if (Files.deleteIfExists(entries.get((int) entry[0])))
+                    evictions.incrementAndGet();
+                total -= entry[2];
+            }
+        }
+    }
+
+    public int hits() {
+        return hits.get();
+    }
+
+    public int misses() {
+        return misses.get();
+    }
+
+    public int evictions() {
+        return evictions.get();
+    }
+
+    public String stats() {
+        return "cache: " + hits + " hits, " + misses + " misses, " + stores + " stored, " + evictions + " evicted";
+    }
+}
@@ -0,0 +1,398 @@
+package br.ufma.ecp;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * Daemon de compilacao (--daemon): uma JVM que fica no ar, ja aquecida, e compila pedidos
+ * de outras invocacoes do App. Escuta so no loopback, com o HttpServer do JDK:
+ *
+ *   POST /compile   corpo com uma compilacao por linha, argumentos separados por tab
+ *                   (os mesmos do App); a resposta vem em streaming, uma linha por
+ *                   mensagem ("out ..." ou "err ...") e "exit N" ao fim de cada compilacao
+ *   GET /stats      quantidade de compilacoes e percentis de latencia
+ *
+ * A porta e um token aleatorio ficam em ~/.jack-compiler/daemon, num diretorio que so o
+ * dono pode abrir (conferido em sistemas POSIX); todo pedido tem de mandar o token em
+ * "Authorization: Bearer", senao recebe 403. Assim outro usuario da maquina nao consegue
+ * nem se passar pelo daemon nem mandar compilacoes que rodam com as permissoes do dono.
+ * Com --client o App le esse arquivo, manda os argumentos (caminhos ja absolutos) e repete
+ * a saida do daemon. Se o arquivo nao existe ou o daemon nao responde, o App compila sozinho.
+ */
+public class CompileDaemon {
+
+    // percentis sobre as ultimas SAMPLES compilacoes
+    private static final int SAMPLES = 1024;
+
+    // o daemon e local: se nao aceita a conexao logo, nao esta no ar
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    // maior silencio aceito entre duas linhas da resposta (um arquivo grande compilando)
+    private static final int READ_TIMEOUT_MILLIS = 120_000;
+
+    // opcoes do App que recebem valor; so o de --cache e caminho
+    private static final Set<String> WITH_VALUE = Set.of("-j", "--cache", "--cache-size", "--port");
+
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rwx------");
+    private static final Set<PosixFilePermission> OWNER_ONLY_FILE = PosixFilePermissions.fromString("rw-------");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String token;
+
+    private final long[] latencies = new long[SAMPLES];
+    private long builds;
+
+    private CompileDaemon(HttpServer server, ExecutorService executor) {
+        this.server = server;
+        this.executor = executor;
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        this.token = HexFormat.of().formatHex(random);
+    }
+
+    // port 0 escolhe uma porta livre
+    public static CompileDaemon start(int port) throws IOException {
+        var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        var executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        var daemon = new CompileDaemon(server, executor);
+        server.createContext("/compile", daemon::compile);
+        server.createContext("/stats", daemon::stats);
+        server.setExecutor(executor);
+        server.start();
+        return daemon;
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    // segredo que os pedidos tem de mandar
+    String token() {
+        return token;
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public static Path portFile() {
+        return Path.of(System.getProperty("user.home"), ".jack-compiler", "daemon");
+    }
+
+    private static boolean posix() {
+        return FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+    }
+
+    // falha se path nao e do usuario atual ou se o grupo ou os outros tem alguma permissao
+    static void checkPrivate(Path path) throws IOException {
+        if (!posix())
+            return;
+        var attributes = Files.readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (attributes.isSymbolicLink() || !attributes.owner().getName().equals(System.getProperty("user.name")))
+            throw new IOException(path + " is not owned by " + System.getProperty("user.name"));
+        for (var permission : attributes.permissions()) {
+            if (!OWNER_ONLY.contains(permission))
+                throw new IOException(path + " is accessible by other users");
+        }
+    }
+
+    // grava "porta token" num temporario so do dono e renomeia, dentro de um diretorio so do dono
+    static void writePortFile(Path file, int port, String token) throws IOException {
+        Path directory = file.getParent();
+        if (posix()) {
+            Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+        } else {
+            Files.createDirectories(directory);
+        }
+        checkPrivate(directory);
+        Path temp = posix()
+                ? Files.createTempFile(directory, "daemon", ".tmp", PosixFilePermissions.asFileAttribute(OWNER_ONLY_FILE))
+                : Files.createTempFile(directory, "daemon", ".tmp");
+        try {
+            Files.writeString(temp, port + " " + token + "\n");
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // porta e token anotados em file, ou null se nao ha daemon; um arquivo que outro usuario
+    // pode ter escrito e ignorado
+    static String[] readPortFile(Path file, PrintStream err) {
+        if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS))
+            return null;
+        try {
+            checkPrivate(file.getParent());
+            checkPrivate(file);
+            String[] fields = Files.readString(file).trim().split(" ");
+            if (fields.length != 2)
+                return null;
+            Integer.parseInt(fields[0]);
+            return fields;
+        } catch (IOException e) {
+            err.println("ignoring daemon file: " + e.getMessage());
+            return null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // App --daemon: sobe o servidor e anota a porta; as threads do servidor seguram a JVM
+    static void serve(int port) {
+        try {
+            var daemon = start(port);
+            Path portFile = portFile();
+            try {
+                writePortFile(portFile, daemon.port(), daemon.token());
+            } catch (IOException e) {
+                daemon.stop();
+                throw e;
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    // so apaga se o arquivo ainda e deste daemon
+                    if (Files.readString(portFile).contains(daemon.token()))
+                        Files.delete(portFile);
+                } catch (IOException e) {
+                    // so sobra um arquivo de porta velho, que o cliente ignora
+                }
+            }));
+            System.out.println("daemon listening on " + server(daemon.port()));
+        } catch (IOException e) {
+            System.err.println("cannot start daemon: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static String server(int port) {
+        return "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + port;
+    }
+
+    // ---------- servidor ----------
+
+    // junta bytes ate o fim da linha e manda a linha com um prefixo, para o cliente separar out de err
+    private static final class PrefixedLines extends OutputStream {
+        private final String prefix;
+        private final OutputStream body;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        PrefixedLines(String prefix, OutputStream body) {
+            this.prefix = prefix;
+            this.body = body;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (b != '\n') {
+                line.write(b);
+                return;
+            }
+            synchronized (body) {
+                body.write(prefix.getBytes(StandardCharsets.UTF_8));
+                line.writeTo(body);
+                body.write('\n');
+                body.flush();
+            }
+            line.reset();
+        }
+    }
+
+    // confere o token em tempo constante; sem ele, 403
+    private boolean authorized(HttpExchange exchange) throws IOException {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header != null && MessageDigest.isEqual(header.getBytes(StandardCharsets.UTF_8),
+                ("Bearer " + token).getBytes(StandardCharsets.UTF_8)))
+            return true;
+        exchange.sendResponseHeaders(403, -1);
+        exchange.close();
+        return false;
+    }
+
+    private void compile(HttpExchange exchange) throws IOException {
+        if (!authorized(exchange))
+            return;
+        if (!exchange.getRequestMethod().equals("POST")) {
+            exchange.sendResponseHeaders(405, -1);
+            exchange.close();
+            return;
+        }
+        var requests = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        // 0: tamanho desconhecido, resposta em chunks
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream body = exchange.getResponseBody()) {
+            var out = new PrintStream(new PrefixedLines("out ", body), true, StandardCharsets.UTF_8);
+            var err = new PrintStream(new PrefixedLines("err ", body), true, StandardCharsets.UTF_8);
+            for (String request : requests.split("\n")) {
+                if (request.isBlank())
+                    continue;
+                long start = System.nanoTime();
+                int status;
+                try {
+                    var options = CompilerOptions.parse(request.split("\t"));
+                    // como na linha de comando com --client: o pedido e uma compilacao so
+                    if (options.daemon() || options.client() || options.watch())
+                        throw new IllegalArgumentException("--daemon, --client and --watch cannot be sent to a daemon");
+                    status = App.build(options, out, err);
+                } catch (IllegalArgumentException e) {
+                    err.println(e.getMessage());
+                    status = 1;
+                } catch (RuntimeException e) {
+                    err.println("internal compiler error: " + e);
+                    status = 1;
+                }
+                record(System.nanoTime() - start);
+                synchronized (body) {
+                    body.write(("exit " + status + "\n").getBytes(StandardCharsets.UTF_8));
+                    body.flush();
+                }
+            }
+        }
+    }
+
+    private synchronized void record(long nanos) {
+        latencies[(int) (builds++ % SAMPLES)] = nanos;
+    }
+
+    // percentil pelo posto mais proximo, em milissegundos
+    private static double percentile(long[] sorted, double p) {
+        int rank = (int) Math.ceil(p / 100 * sorted.length);
+        return sorted[Math.max(0, rank - 1)] / 1e6;
+    }
+
+    public synchronized String stats() {
+        long[] sorted = Arrays.copyOf(latencies, (int) Math.min(builds, SAMPLES));
+        Arrays.sort(sorted);
+        if (sorted.length == 0)
+            return "builds: 0";
+        return String.format("builds: %d, p50: %.1f ms, p90: %.1f ms, p99: %.1f ms, max: %.1f ms", builds,
+                percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99),
+                sorted[sorted.length - 1] / 1e6);
+    }
+
+    private void stats(HttpExchange exchange) throws IOException {
+        if (!authorized(exchange))
+            return;
+        byte[] body = (stats() + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // ---------- cliente ----------
+
+    // manda a compilacao ao daemon anotado no arquivo de porta; null se nao ha daemon
+    static Integer forward(String[] args, PrintStream out, PrintStream err) {
+        String[] daemon = readPortFile(portFile(), err);
+        if (daemon == null)
+            return null;
+        return forward(Integer.parseInt(daemon[0]), daemon[1], List.<String[]>of(args), out, err);
+    }
+
+    // o daemon roda em outro diretorio: caminhos vao absolutos. Devolve o maior codigo de saida,
+    // ou null se o daemon nao chegou a compilar nada e a compilacao pode ser feita aqui; depois
+    // que a resposta comecou, uma falha vira erro para nada ser compilado nem impresso duas vezes
+    static Integer forward(int port, String token, List<String[]> builds, PrintStream out, PrintStream err) {
+        var request = new StringBuilder();
+        for (String[] args : builds)
+            request.append(String.join("\t", absolute(args))).append('\n');
+
+        HttpURLConnection connection;
+        try {
+            connection = (HttpURLConnection) new URL(server(port) + "/compile").openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Authorization", "Bearer " + token);
+            connection.setDoOutput(true);
+            connection.connect();
+        } catch (IOException e) {
+            return null;
+        }
+
+        int status = 0;
+        int finished = 0;
+        try {
+            try (OutputStream body = connection.getOutputStream()) {
+                body.write(request.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            // o daemon so responde 200 quando vai compilar; outra resposta vem de algo que nao e
+            // este daemon (porta reaproveitada, token velho) e nada foi compilado
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                err.println("daemon refused the build (HTTP " + code + "); building locally");
+                return null;
+            }
+            try (var reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("out ")) {
+                        out.println(line.substring(4));
+                    } else if (line.startsWith("err ")) {
+                        err.println(line.substring(4));
+                    } else if (line.startsWith("exit ")) {
+                        status = Math.max(status, Integer.parseInt(line.substring(5)));
+                        finished++;
+                    }
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            err.println("lost connection to the compile daemon: " + e.getMessage());
+            return 1;
+        }
+        if (finished < builds.size()) {
+            err.println("the compile daemon stopped before finishing the build");
+            return 1;
+        }
+        return status;
+    }
+
+    private static List<String> absolute(String[] args) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--client"))
+                continue;
+            result.add(arg);
+            if (WITH_VALUE.contains(arg) && i + 1 < args.length) {
+                String value = args[++i];
+                result.add(arg.equals("--cache") ? new File(value).getAbsolutePath() : value);
+            } else if (!arg.startsWith("-")) {
+                result.set(result.size() - 1, new File(arg).getAbsolutePath());
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,175 @@
+package br.ufma.ecp;
+
+/*
+ * Opcoes de linha de comando do compilador:
+ *
+ *   App [-O] [--string-pool] [--asm] [-j N] [--virtual-threads] [--fail-fast] [--incremental]
+ *       [--cache DIR [--cache-size MB]] [--client | --watch]
+ *       <arquivo.jack | diretorio>
+ *   App --daemon [--port N]
+ *
+ *   -O             dobra expressoes constantes, troca multiplicacoes por constantes
+ *                  por somas e aplica o otimizador peephole ao codigo da VM
+ *   --string-pool  cada literal de string vira um static montado uma vez so; o programa
+ *                  nao pode alterar nem liberar (dispose) as strings dos literais
+ *   --asm          gera assembly do Hack em vez de .vm: um diretorio vira um unico
+ *                  Diretorio.asm com bootstrap, junto com os .vm que ja estiverem nele (o OS)
+ *   -j N           compila ate N arquivos ao mesmo tempo
+ *   --virtual-threads  usa threads virtuais (Java 21+) para as tarefas de -j
+ *   --fail-fast    para de comecar arquivos novos depois do primeiro erro
+ *   --incremental  so recompila os .jack que mudaram desde a ultima compilacao (BuildManifest)
+ *   --cache DIR    busca e guarda os .vm num cache por conteudo compartilhado (CompileCache),
+ *                  limitado a --cache-size megabytes (64 se nao for dado)
+ *   --daemon       fica no ar compilando pedidos de --client (CompileDaemon), na porta
+ *                  --port ou numa porta livre
+ *   --client       manda a compilacao ao daemon, se houver um; senao compila aqui
+ *   --watch        fica olhando o diretorio e recompila os .jack salvos (BuildWatcher)
+ */
+public class CompilerOptions {
+
+    public static final String USAGE = "usage: App [-O] [--string-pool] [--asm] [-j N] [--virtual-threads] [--fail-fast] [--incremental] [--cache DIR [--cache-size MB]] [--client | --watch] <file.jack | directory>\n       App --daemon [--port N]";
+
+    boolean optimize;
+    boolean stringPool;
+    boolean asm;
+    int jobs = 1;
+    boolean virtualThreads;
+    boolean failFast;
+    boolean incremental;
+    String cache;
+    long cacheSize = CompileCache.DEFAULT_MAX_BYTES;
+    boolean daemon;
+    int port;
+    boolean client;
+    boolean watch;
+    String path;
+
+    // opcoes de -O, usadas nos testes
+    public static CompilerOptions optimized() {
+        var options = new CompilerOptions();
+        options.optimize = true;
+        return options;
+    }
+
+    public static CompilerOptions parse(String[] args) {
+        var options = new CompilerOptions();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "-O" -> options.optimize = true;
+                case "--string-pool" -> options.stringPool = true;
+                case "--asm" -> options.asm = true;
+                case "-j" -> {
+                    if (i + 1 == args.length)
+                        throw new IllegalArgumentException("-j needs the number of jobs");
+                    options.jobs = positive(args[++i], "invalid number of jobs: ");
+                }
+                case "--virtual-threads" -> options.virtualThreads = true;
+                case "--fail-fast" -> options.failFast = true;
+                case "--incremental" -> options.incremental = true;
+                case "--cache", "--cache-size" -> {
+                    if (i + 1 == args.length)
+                        throw new IllegalArgumentException(arg + " needs a value");
+                    if (arg.equals("--cache"))
+                        options.cache = args[++i];
+                    else
+                        options.cacheSize = (long) positive(args[++i], "invalid cache size: ") << 20;
+                }
+                case "--daemon" -> options.daemon = true;
+                case "--port" -> {
+                    if (i + 1 == args.length)
+                        throw new IllegalArgumentException("--port needs a value");
+                    options.port = positive(args[++i], "invalid port: ");
+                }
+                case "--client" -> options.client = true;
+                case "--watch" -> options.watch = true;
+                default -> {
+                    if (arg.startsWith("-") || options.path != null)
+                        throw new IllegalArgumentException("unexpected argument: " + arg);
+                    options.path = arg;
+                }
+            }
+        }
+        if (options.daemon && options.client)
+            throw new IllegalArgumentException("--daemon and --client cannot be used together");
+        if (options.watch && (options.daemon || options.client))
+            throw new IllegalArgumentException("--watch cannot be used with --daemon or --client");
+        if (options.path == null && !options.daemon)
+            throw new IllegalArgumentException("Please provide a single file path argument.");
+        return options;
+    }
+
+    private static int positive(String value, String error) {
+        try {
+            int n = Integer.parseInt(value);
+            if (n >= 1)
+                return n;
+        } catch (NumberFormatException e) {
+            // cai no erro abaixo
+        }
+        throw new IllegalArgumentException(error + value);
+    }
+
+    public CompilerOptions withStringPool() {
+        stringPool = true;
+        return this;
+    }
+
+    public boolean optimize() {
+        return optimize;
+    }
+
+    public boolean stringPool() {
+        return stringPool;
+    }
+
+    public boolean asm() {
+        return asm;
+    }
+
+    public int jobs() {
+        return jobs;
+    }
+
+    public boolean virtualThreads() {
+        return virtualThreads;
+    }
+
+    public boolean failFast() {
+        return failFast;
+    }
+
+    public boolean incremental() {
+        return incremental;
+    }
+
+    // diretorio do cache, ou null
+    public String cache() {
+        return cache;
+    }
+
+    public long cacheSize() {
+        return cacheSize;
+    }
+
+    public boolean daemon() {
+        return daemon;
+    }
+
+    // 0: porta livre escolhida pelo sistema
+    public int port() {
+        return port;
+    }
+
+    public boolean client() {
+        return client;
+    }
+
+    public boolean watch() {
+        return watch;
+    }
+
+    public String path() {
+        return path;
+    }
+}
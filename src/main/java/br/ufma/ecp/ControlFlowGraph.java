@@ -0,0 +1,135 @@
+package br.ufma.ecp;
+
+import static br.ufma.ecp.VMCode.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Grafo de fluxo de controle de uma funcao do IR. Cada bloco basico guarda o corpo sem
+ * os labels e sem o desvio final; labels seguidos caem no mesmo bloco. O desvio final
+ * fica em branch (GOTO, IF_GOTO, RETURN ou FALL quando o bloco so cai no seguinte).
+ */
+public class ControlFlowGraph {
+
+    public static final int FALL = -1;
+
+    public static final class Block {
+        final int index;
+        int[] body;
+        int branch = FALL;
+        // destino de GOTO/IF_GOTO
+        Block target;
+        // bloco seguinte na ordem original: fall-through de FALL e de IF_GOTO
+        Block next;
+        // primeiro label do bloco, ou -1
+        int label = -1;
+        int targetLabel = -1;
+
+        Block(int index) {
+            this.index = index;
+        }
+
+        public int[] body() {
+            return body;
+        }
+
+        public int branch() {
+            return branch;
+        }
+
+        // sucessores no grafo
+        public List<Block> successors() {
+            List<Block> successors = new ArrayList<>(2);
+            if ((branch == FALL || branch == IF_GOTO) && next != null)
+                successors.add(next);
+            if ((branch == GOTO || branch == IF_GOTO) && target != null && target != next)
+                successors.add(target);
+            return successors;
+        }
+    }
+
+    private final VMCode code;
+    // instrucao function
+    private final int header;
+    private final List<Block> blocks = new ArrayList<>();
+
+    private ControlFlowGraph(VMCode code, int header) {
+        this.code = code;
+        this.header = header;
+    }
+
+    public List<Block> blocks() {
+        return blocks;
+    }
+
+    public int header() {
+        return header;
+    }
+
+    // instrucoes [from, to) de uma funcao; from e a instrucao function.
+    // devolve null se a funcao desvia para um label que nao define
+    public static ControlFlowGraph build(VMCode code, int from, int to) {
+        var graph = new ControlFlowGraph(code, code.instruction(from));
+        Block[] byLabel = new Block[code.nameCount()];
+
+        int[] body = new int[to - from];
+        int bodySize = 0;
+        Block current = graph.newBlock();
+        for (int i = from + 1; i < to; i++) {
+            int insn = code.instruction(i);
+            int op = opcode(insn);
+            if (op == LABEL) {
+                if (bodySize > 0) {
+                    current.body = Arrays.copyOf(body, bodySize);
+                    bodySize = 0;
+                    current = graph.newBlock();
+                }
+                int label = code.nameId(insn);
+                byLabel[label] = current;
+                if (current.label < 0)
+                    current.label = label;
+            } else if (op == GOTO || op == IF_GOTO || op == RETURN) {
+                current.body = Arrays.copyOf(body, bodySize);
+                current.branch = op;
+                if (op != RETURN)
+                    current.targetLabel = code.nameId(insn);
+                bodySize = 0;
+                current = graph.newBlock();
+            } else {
+                body[bodySize++] = insn;
+            }
+        }
+        current.body = Arrays.copyOf(body, bodySize);
+        // bloco vazio que sobra depois do return final
+        if (bodySize == 0 && current.label < 0 && graph.blocks.size() > 1)
+            graph.blocks.remove(graph.blocks.size() - 1);
+
+        var blocks = graph.blocks;
+        for (int b = 0; b < blocks.size(); b++) {
+            Block block = blocks.get(b);
+            if (b + 1 < blocks.size())
+                block.next = blocks.get(b + 1);
+            if (block.targetLabel >= 0) {
+                block.target = byLabel[block.targetLabel];
+                if (block.target == null)
+                    return null;
+            }
+        }
+        return graph;
+    }
+
+    private Block newBlock() {
+        var block = new Block(blocks.size());
+        blocks.add(block);
+        return block;
+    }
+
+    // label de um bloco que vai ser destino de desvio; cria um se ele nao tinha
+    int labelOf(Block block) {
+        if (block.label < 0)
+            block.label = code.intern("CFG." + block.index);
+        return block.label;
+    }
+}
@@ -0,0 +1,44 @@
+package br.ufma.ecp;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Coleta os erros lexicos e sintaticos em vez de abortar a JVM, para que o
+ * driver continue compilando os demais arquivos e mostre tudo no final.
+ */
+public class Diagnostics {
+
+    public static record Diagnostic(String file, int line, int column, String message) {
+
+        @Override
+        public String toString() {
+            return "[" + file + ":" + line + ":" + column + "] Error: " + message;
+        }
+    }
+
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+
+    public void error(String file, int line, int column, String message) {
+        diagnostics.add(new Diagnostic(file, line, column, message));
+    }
+
+    public void addAll(Diagnostics other) {
+        diagnostics.addAll(other.diagnostics);
+    }
+
+    public boolean hasErrors() {
+        return !diagnostics.isEmpty();
+    }
+
+    public List<Diagnostic> all() {
+        return Collections.unmodifiableList(diagnostics);
+    }
+
+    public void report(PrintStream out) {
+        for (Diagnostic d : diagnostics)
+            out.println(d);
+    }
+}
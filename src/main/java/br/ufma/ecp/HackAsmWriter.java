@@ -0,0 +1,347 @@
+package br.ufma.ecp;
+
+import static br.ufma.ecp.VMCode.*;
+
+import br.ufma.ecp.VMWriter.Command;
+import br.ufma.ecp.VMWriter.Segment;
+
+/*
+ * Traduz o IR da VM direto para assembly do Hack, sem passar pelo texto .vm.
+ *
+ * O topo da pilha fica em D enquanto o codigo e linear: o estado de compilacao diz se
+ * o topo esta na memoria (EMPTY), em D (IN_D) ou e uma constante que ainda nem foi
+ * carregada (CONST). Assim push x; pop y vira so carregar e guardar, e uma constante
+ * guardada num segmento direto vira @y; M=0/1/-1. Antes de labels, desvios e chamadas
+ * o topo volta para a memoria, entao todo label comeca com o estado EMPTY.
+ *
+ * call e return pulam para rotinas compartilhadas ($$CALL e $$RETURN) em vez de
+ * repetir a montagem do quadro em cada chamada.
+ */
+public class HackAsmWriter {
+
+    private static final int EMPTY = 0;
+    private static final int IN_D = 1;
+    private static final int CONST = 2;
+
+    // indices ate esse limite em local/argument/this/that sao enderecados com A=A+1
+    private static final int INCREMENT_LIMIT = 3;
+
+    private final StringBuilder out = new StringBuilder();
+    private int state = EMPTY;
+    private int constant;
+
+    private VMCode code;
+    private String fileName;
+    private String function = "";
+    private int labelCount;
+    private boolean runtimeNeeded;
+
+    // com bootstrap: SP = 256 e chama Sys.init, como o tradutor do livro
+    public HackAsmWriter(boolean bootstrap) {
+        if (bootstrap) {
+            emit("@256", "D=A", "@SP", "M=D");
+            function = "$$BOOT";
+            writeCall("Sys.init", 0);
+            emit("($$HALT)", "@$$HALT", "0;JMP");
+        }
+    }
+
+    // fileName da nome aos statics (Arquivo.i), como no tradutor do livro
+    public void translate(String fileName, VMCode code) {
+        this.code = code;
+        this.fileName = fileName;
+        for (int i = 0; i < code.size(); i++)
+            i += translate(i);
+        flush();
+    }
+
+    public String output() {
+        if (runtimeNeeded)
+            writeRuntime();
+        return out.toString();
+    }
+
+    // devolve quantas instrucoes seguintes foram consumidas junto com a atual
+    private int translate(int i) {
+        int insn = code.instruction(i);
+        if (opcode(insn) == ARITHMETIC && isComparison(VMCode.command(insn))) {
+            int fused = fuseBranch(i);
+            if (fused > 0)
+                return fused;
+        }
+        switch (opcode(insn)) {
+            case PUSH -> writePush(VMCode.segment(insn), code.index(insn));
+            case POP -> writePop(VMCode.segment(insn), code.index(insn));
+            case ARITHMETIC -> writeArithmetic(VMCode.command(insn));
+            case LABEL -> {
+                flush();
+                emit("(" + label(insn) + ")");
+            }
+            case GOTO -> {
+                flush();
+                emit("@" + label(insn), "0;JMP");
+            }
+            case IF_GOTO -> {
+                if (state == CONST) {
+                    state = EMPTY;
+                    if (constant != 0)
+                        emit("@" + label(insn), "0;JMP");
+                } else {
+                    loadTop();
+                    state = EMPTY;
+                    emit("@" + label(insn), "D;JNE");
+                }
+            }
+            case CALL -> writeCall(code.name(code.nameId(insn)), code.count(insn));
+            case FUNCTION -> writeFunction(code.name(code.nameId(insn)), code.count(insn));
+            case RETURN -> {
+                loadTop();
+                state = EMPTY;
+                runtimeNeeded = true;
+                emit("@$$RETURN", "0;JMP");
+            }
+            default -> throw new IllegalStateException("invalid opcode " + opcode(insn));
+        }
+        return 0;
+    }
+
+    private static boolean isComparison(Command command) {
+        return command == Command.EQ || command == Command.GT || command == Command.LT;
+    }
+
+    // eq/gt/lt [not] if-goto: desvia direto pela diferenca, sem materializar o booleano
+    private int fuseBranch(int i) {
+        int next = i + 1;
+        boolean negated = next < code.size() && code.instruction(next) == encode(ARITHMETIC, Command.NOT.ordinal());
+        if (negated)
+            next++;
+        if (next >= code.size() || opcode(code.instruction(next)) != IF_GOTO)
+            return 0;
+        Command command = VMCode.command(code.instruction(i));
+        String jump = switch (command) {
+            case EQ -> negated ? "JNE" : "JEQ";
+            case GT -> negated ? "JLE" : "JGT";
+            default -> negated ? "JGE" : "JLT";
+        };
+        loadTop();
+        state = EMPTY;
+        emit("@SP", "AM=M-1", "D=M-D", "@" + label(code.instruction(next)), "D;" + jump);
+        return next - i;
+    }
+
+    private String label(int insn) {
+        return function + "$" + code.name(code.nameId(insn));
+    }
+
+    // ---------- pilha ----------
+
+    private void writePush(Segment segment, int index) {
+        flush();
+        if (segment == Segment.CONST) {
+            state = CONST;
+            constant = (short) index;
+            return;
+        }
+        switch (segment) {
+            case LOCAL, ARG, THIS, THAT -> {
+                emit("@" + base(segment));
+                if (index <= INCREMENT_LIMIT) {
+                    emit(index == 0 ? "A=M" : "A=M+1");
+                    for (int i = 1; i < index; i++)
+                        emit("A=A+1");
+                } else {
+                    emit("D=M", "@" + index, "A=D+A");
+                }
+                emit("D=M");
+            }
+            default -> emit("@" + direct(segment, index), "D=M");
+        }
+        state = IN_D;
+    }
+
+    private void writePop(Segment segment, int index) {
+        boolean smallConstant = state == CONST && constant >= -1 && constant <= 1;
+        switch (segment) {
+            case LOCAL, ARG, THIS, THAT -> {
+                if (index <= INCREMENT_LIMIT) {
+                    String value = smallConstant ? String.valueOf(constant) : "D";
+                    if (!smallConstant)
+                        loadTop();
+                    emit("@" + base(segment), index == 0 ? "A=M" : "A=M+1");
+                    for (int i = 1; i < index; i++)
+                        emit("A=A+1");
+                    emit("M=" + value);
+                } else {
+                    loadTop();
+                    emit("@R13", "M=D", "@" + base(segment), "D=M", "@" + index, "D=D+A",
+                            "@R14", "M=D", "@R13", "D=M", "@R14", "A=M", "M=D");
+                }
+            }
+            case CONST -> {
+                // pop constant nao existe na VM; so descarta
+                if (state == EMPTY)
+                    emit("@SP", "M=M-1");
+            }
+            default -> {
+                if (smallConstant) {
+                    emit("@" + direct(segment, index), "M=" + constant);
+                } else {
+                    loadTop();
+                    emit("@" + direct(segment, index), "M=D");
+                }
+            }
+        }
+        state = EMPTY;
+    }
+
+    private String base(Segment segment) {
+        return switch (segment) {
+            case LOCAL -> "LCL";
+            case ARG -> "ARG";
+            case THIS -> "THIS";
+            default -> "THAT";
+        };
+    }
+
+    private String direct(Segment segment, int index) {
+        return switch (segment) {
+            case POINTER -> index == 0 ? "THIS" : "THAT";
+            case TEMP -> "R" + (5 + index);
+            case STATIC -> fileName + "." + index;
+            default -> throw new IllegalArgumentException(segment.value);
+        };
+    }
+
+    // topo da pilha em D, tirado da pilha
+    private void loadTop() {
+        if (state == EMPTY) {
+            emit("@SP", "AM=M-1", "D=M");
+        } else if (state == CONST) {
+            loadConstant(constant);
+        }
+        state = IN_D;
+    }
+
+    private void loadConstant(int c) {
+        if (c >= -1 && c <= 1)
+            emit("D=" + c);
+        else if (c == Short.MIN_VALUE)
+            emit("@32767", "D=!A");
+        else if (c < 0)
+            emit("@" + -c, "D=-A");
+        else
+            emit("@" + c, "D=A");
+    }
+
+    // devolve o topo para a memoria
+    private void flush() {
+        if (state == CONST && constant >= -1 && constant <= 1) {
+            emit("@SP", "AM=M+1", "A=A-1", "M=" + constant);
+        } else if (state != EMPTY) {
+            loadTop();
+            emit("@SP", "AM=M+1", "A=A-1", "M=D");
+        }
+        state = EMPTY;
+    }
+
+    // ---------- aritmetica ----------
+
+    private void writeArithmetic(Command command) {
+        switch (command) {
+            case NEG, NOT -> {
+                if (state == CONST) {
+                    constant = (short) (command == Command.NEG ? -constant : ~constant);
+                    return;
+                }
+                loadTop();
+                emit(command == Command.NEG ? "D=-D" : "D=!D");
+            }
+            case ADD, SUB, AND, OR -> {
+                if (state == CONST && constant == 1 && (command == Command.ADD || command == Command.SUB)) {
+                    emit("@SP", "AM=M-1", command == Command.ADD ? "D=M+1" : "D=M-1");
+                    state = IN_D;
+                    return;
+                }
+                loadTop();
+                emit("@SP", "AM=M-1");
+                emit(switch (command) {
+                    case ADD -> "D=D+M";
+                    case SUB -> "D=M-D";
+                    case AND -> "D=D&M";
+                    default -> "D=D|M";
+                });
+            }
+            default -> {
+                loadTop();
+                String jump = switch (command) {
+                    case EQ -> "JEQ";
+                    case GT -> "JGT";
+                    default -> "JLT";
+                };
+                int n = labelCount++;
+                emit("@SP", "AM=M-1", "D=M-D", "@$$TRUE" + n, "D;" + jump, "D=0", "@$$END" + n, "0;JMP",
+                        "($$TRUE" + n + ")", "D=-1", "($$END" + n + ")");
+            }
+        }
+        state = IN_D;
+    }
+
+    // ---------- funcoes ----------
+
+    private void writeFunction(String name, int nLocals) {
+        flush();
+        function = name;
+        emit("(" + name + ")");
+        if (nLocals > 0) {
+            emit("@SP", "A=M");
+            for (int i = 0; i < nLocals; i++)
+                emit(i == 0 ? "M=0" : "A=A+1", i == 0 ? null : "M=0");
+            emit("D=A+1", "@SP", "M=D");
+        }
+    }
+
+    // R13 = nArgs, R14 = funcao, D = endereco de retorno; $$CALL monta o quadro e pula
+    private void writeCall(String name, int nArgs) {
+        flush();
+        runtimeNeeded = true;
+        String ret = "$$RET" + labelCount++;
+        if (nArgs <= 1)
+            emit("@R13", "M=" + nArgs);
+        else
+            emit("@" + nArgs, "D=A", "@R13", "M=D");
+        emit("@" + name, "D=A", "@R14", "M=D", "@" + ret, "D=A", "@$$CALL", "0;JMP", "(" + ret + ")");
+    }
+
+    private void writeRuntime() {
+        emit("($$CALL)");
+        pushD();
+        for (String register : new String[] { "LCL", "ARG", "THIS", "THAT" }) {
+            emit("@" + register, "D=M");
+            pushD();
+        }
+        // ARG = SP - 5 - nArgs, LCL = SP
+        emit("@R13", "D=M", "@5", "D=D+A", "@SP", "D=M-D", "@ARG", "M=D",
+                "@SP", "D=M", "@LCL", "M=D", "@R14", "A=M", "0;JMP");
+
+        // D = valor de retorno; o endereco de retorno e lido antes de *ARG ser sobrescrito
+        emit("($$RETURN)", "@R13", "M=D",
+                "@LCL", "D=M", "@R14", "M=D",
+                "@5", "A=D-A", "D=M", "@R15", "M=D",
+                "@R13", "D=M", "@ARG", "A=M", "M=D",
+                "@ARG", "D=M+1", "@SP", "M=D");
+        for (String register : new String[] { "THAT", "THIS", "ARG", "LCL" })
+            emit("@R14", "AM=M-1", "D=M", "@" + register, "M=D");
+        emit("@R15", "A=M", "0;JMP");
+    }
+
+    private void pushD() {
+        emit("@SP", "AM=M+1", "A=A-1", "M=D");
+    }
+
+    private void emit(String... lines) {
+        for (String line : lines) {
+            if (line != null)
+                out.append(line).append('\n');
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package br.ufma.ecp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Implementacao em Java das classes do SO do Jack (Math, Memory, Array, String, Output,
+ * Screen, Keyboard e Sys), sobre uma RAM de int com valores de 16 bits.
+ *
+ * As funcoes sao identificadas por um numero (id) para que quem chama resolva o nome uma
+ * vez so; os argumentos sao lidos da RAM a partir de um endereco, que e onde a VM ja os
+ * deixou na pilha. Output escreve num texto em vez da tela, e Keyboard le de uma entrada
+ * fixa, para que os programas rodem sem interface. Os codigos de erro de Sys.error sao
+ * os do SO do livro.
+ */
+public class JackOS {
+
+    public static final int HEAP_BASE = 2048;
+    public static final int SCREEN = 16384;
+    public static final int KEYBOARD = 24576;
+
+    private static final String[] NAMES = {
+            "Math.init", "Math.abs", "Math.multiply", "Math.divide", "Math.min", "Math.max", "Math.sqrt",
+            "Memory.init", "Memory.peek", "Memory.poke", "Memory.alloc", "Memory.deAlloc",
+            "Array.new", "Array.dispose",
+            "String.new", "String.dispose", "String.length", "String.charAt", "String.setCharAt",
+            "String.appendChar", "String.eraseLastChar", "String.intValue", "String.setInt",
+            "String.backSpace", "String.doubleQuote", "String.newLine",
+            "Output.init", "Output.moveCursor", "Output.printChar", "Output.printString",
+            "Output.printInt", "Output.println", "Output.backSpace",
+            "Screen.init", "Screen.clearScreen", "Screen.setColor", "Screen.drawPixel",
+            "Screen.drawLine", "Screen.drawRectangle", "Screen.drawCircle",
+            "Keyboard.init", "Keyboard.keyPressed", "Keyboard.readChar", "Keyboard.readLine",
+            "Keyboard.readInt",
+            "Sys.halt", "Sys.error", "Sys.wait" };
+
+    // ids das funcoes, na ordem de NAMES
+    private static final int MATH_INIT = 0, MATH_ABS = 1, MATH_MULTIPLY = 2, MATH_DIVIDE = 3, MATH_MIN = 4,
+            MATH_MAX = 5, MATH_SQRT = 6;
+    private static final int MEMORY_INIT = 7, MEMORY_PEEK = 8, MEMORY_POKE = 9, MEMORY_ALLOC = 10,
+            MEMORY_DE_ALLOC = 11;
+    private static final int ARRAY_NEW = 12, ARRAY_DISPOSE = 13;
+    private static final int STRING_NEW = 14, STRING_DISPOSE = 15, STRING_LENGTH = 16, STRING_CHAR_AT = 17,
+            STRING_SET_CHAR_AT = 18, STRING_APPEND_CHAR = 19, STRING_ERASE_LAST_CHAR = 20,
+            STRING_INT_VALUE = 21, STRING_SET_INT = 22, STRING_BACK_SPACE = 23, STRING_DOUBLE_QUOTE = 24,
+            STRING_NEW_LINE = 25;
+    private static final int OUTPUT_INIT = 26, OUTPUT_MOVE_CURSOR = 27, OUTPUT_PRINT_CHAR = 28,
+            OUTPUT_PRINT_STRING = 29, OUTPUT_PRINT_INT = 30, OUTPUT_PRINTLN = 31, OUTPUT_BACK_SPACE = 32;
+    private static final int SCREEN_INIT = 33, SCREEN_CLEAR_SCREEN = 34, SCREEN_SET_COLOR = 35,
+            SCREEN_DRAW_PIXEL = 36, SCREEN_DRAW_LINE = 37, SCREEN_DRAW_RECTANGLE = 38, SCREEN_DRAW_CIRCLE = 39;
+    private static final int KEYBOARD_INIT = 40, KEYBOARD_KEY_PRESSED = 41, KEYBOARD_READ_CHAR = 42,
+            KEYBOARD_READ_LINE = 43, KEYBOARD_READ_INT = 44;
+    private static final int SYS_HALT = 45, SYS_ERROR = 46, SYS_WAIT = 47;
+
+    private static final int[] ARITY = {
+            0, 1, 2, 2, 2, 2, 1,
+            0, 1, 2, 1, 1,
+            1, 1,
+            1, 1, 1, 2, 3,
+            2, 1, 1, 2,
+            0, 0, 0,
+            0, 2, 1, 1,
+            1, 0, 0,
+            0, 0, 1, 2,
+            4, 4, 3,
+            0, 0, 0, 1,
+            1,
+            0, 1, 1 };
+
+    private static final Map<String, Integer> IDS = new HashMap<>();
+
+    static {
+        for (int i = 0; i < NAMES.length; i++)
+            IDS.put(NAMES[i], i);
+    }
+
+    private static final int ARGUMENTS = 256;
+
+    // caracteres especiais do Jack
+    private static final int NEW_LINE = 128;
+    private static final int BACKSPACE = 129;
+
+    private final int[] ram;
+    private final StringBuilder output = new StringBuilder();
+    private String input = "";
+    private int inputPosition;
+
+    // blocos livres: pares (endereco, tamanho); o tamanho de um bloco fica em ram[endereco - 1]
+    private final List<int[]> free = new ArrayList<>();
+    private int heapTop = HEAP_BASE + 1;
+    private boolean black = true;
+    private boolean halted;
+
+    public JackOS(int[] ram) {
+        this.ram = ram;
+    }
+
+    // id da funcao do SO, ou -1 se o nome nao e do SO
+    public static int id(String name) {
+        return IDS.getOrDefault(name, -1);
+    }
+
+    public static String name(int id) {
+        return NAMES[id];
+    }
+
+    // quantidade de funcoes do SO; os ids vao de 0 a count() - 1
+    public static int count() {
+        return NAMES.length;
+    }
+
+    public static int arity(int id) {
+        return ARITY[id];
+    }
+
+    public JackOS withInput(String input) {
+        this.input = input;
+        this.inputPosition = 0;
+        return this;
+    }
+
+    public String output() {
+        return output.toString();
+    }
+
+    // Sys.halt, Sys.error ou fim da entrada do teclado
+    public boolean halted() {
+        return halted;
+    }
+
+    // chama a funcao id com os argumentos em ram[args], ram[args + 1], ...; funcoes void devolvem 0
+    public int invoke(int id, int args) {
+        int a = ARITY[id] > 0 ? ram[args] : 0;
+        int b = ARITY[id] > 1 ? ram[args + 1] : 0;
+        switch (id) {
+            case MATH_ABS: return (short) Math.abs(a);
+            case MATH_MULTIPLY: return (short) (a * b);
+            case MATH_DIVIDE: return divide(a, b);
+            case MATH_MIN: return Math.min(a, b);
+            case MATH_MAX: return Math.max(a, b);
+            case MATH_SQRT: return sqrt(a);
+            case MEMORY_PEEK: return ram[a & 0x7FFF];
+            case MEMORY_POKE: ram[a & 0x7FFF] = b; return 0;
+            case MEMORY_ALLOC: return alloc(a);
+            case MEMORY_DE_ALLOC: deAlloc(a); return 0;
+            case ARRAY_NEW:
+                if (a <= 0)
+                    return error(2);
+                return alloc(a);
+            case ARRAY_DISPOSE: deAlloc(a); return 0;
+            case STRING_NEW: return newString(a);
+            case STRING_DISPOSE: deAlloc(a); return 0;
+            case STRING_LENGTH: return ram[a + 1];
+            case STRING_CHAR_AT:
+                if (b < 0 || b >= ram[a + 1])
+                    return error(15);
+                return ram[a + 2 + b];
+            case STRING_SET_CHAR_AT:
+                if (b < 0 || b >= ram[a + 1])
+                    return error(16);
+                ram[a + 2 + b] = ram[args + 2];
+                return 0;
+            case STRING_APPEND_CHAR: return appendChar(a, b);
+            case STRING_ERASE_LAST_CHAR:
+                if (ram[a + 1] == 0)
+                    return error(18);
+                ram[a + 1]--;
+                return 0;
+            case STRING_INT_VALUE: return intValue(a);
+            case STRING_SET_INT: return setInt(a, b);
+            case STRING_BACK_SPACE: return BACKSPACE;
+            case STRING_DOUBLE_QUOTE: return '"';
+            case STRING_NEW_LINE: return NEW_LINE;
+            case OUTPUT_PRINT_CHAR: printChar(a); return 0;
+            case OUTPUT_PRINT_STRING: printString(a); return 0;
+            case OUTPUT_PRINT_INT: output.append(a); return 0;
+            case OUTPUT_PRINTLN: output.append('\n'); return 0;
+            case OUTPUT_BACK_SPACE: printChar(BACKSPACE); return 0;
+            case SCREEN_CLEAR_SCREEN:
+                for (int i = SCREEN; i < KEYBOARD; i++)
+                    ram[i] = 0;
+                return 0;
+            case SCREEN_SET_COLOR: black = a != 0; return 0;
+            case SCREEN_DRAW_PIXEL:
+                if (!onScreen(a, b))
+                    return error(7);
+                drawPixel(a, b);
+                return 0;
+            case SCREEN_DRAW_LINE: return drawLine(a, b, ram[args + 2], ram[args + 3]);
+            case SCREEN_DRAW_RECTANGLE: return drawRectangle(a, b, ram[args + 2], ram[args + 3]);
+            case SCREEN_DRAW_CIRCLE: return drawCircle(a, b, ram[args + 2]);
+            case KEYBOARD_KEY_PRESSED: return ram[KEYBOARD];
+            case KEYBOARD_READ_CHAR: return readChar();
+            case KEYBOARD_READ_LINE: return readLine(a);
+            case KEYBOARD_READ_INT: {
+                int line = readLine(a);
+                int value = intValue(line);
+                deAlloc(line);
+                return value;
+            }
+            case SYS_HALT: halted = true; return 0;
+            case SYS_ERROR: return error(a);
+            default:
+                // os init, Output.moveCursor (a saida e so texto) e Sys.wait
+                return 0;
+        }
+    }
+
+    // para quem nao usa a pilha da VM (o backend da JVM): os argumentos vao para a area da
+    // pilha, que entao esta livre
+    int invoke(int id, int a, int b, int c, int d) {
+        ram[ARGUMENTS] = a;
+        ram[ARGUMENTS + 1] = b;
+        ram[ARGUMENTS + 2] = c;
+        ram[ARGUMENTS + 3] = d;
+        return invoke(id, ARGUMENTS);
+    }
+
+    private int error(int code) {
+        output.append("ERR").append(code);
+        halted = true;
+        return 0;
+    }
+
+    // ---------- Math ----------
+
+    private int divide(int x, int y) {
+        if (y == 0)
+            return error(3);
+        return (short) (x / y);
+    }
+
+    private int sqrt(int x) {
+        if (x < 0)
+            return error(4);
+        return (int) Math.sqrt(x);
+    }
+
+    // ---------- Memory ----------
+
+    // primeiro bloco livre que cabe; se nenhum cabe, cresce o heap
+    private int alloc(int size) {
+        if (size <= 0)
+            return error(5);
+        for (int i = 0; i < free.size(); i++) {
+            int[] block = free.get(i);
+            if (block[1] >= size) {
+                free.remove(i);
+                if (block[1] > size + 1) {
+                    // sobra vira outro bloco livre
+                    int rest = block[0] + size + 1;
+                    ram[rest - 1] = block[1] - size - 1;
+                    free.add(new int[] { rest, ram[rest - 1] });
+                    ram[block[0] - 1] = size;
+                }
+                return block[0];
+            }
+        }
+        if (heapTop + size > SCREEN)
+            return error(6);
+        int block = heapTop;
+        ram[block - 1] = size;
+        heapTop += size + 1;
+        return block;
+    }
+
+    private void deAlloc(int block) {
+        if (block > HEAP_BASE && block < heapTop)
+            free.add(new int[] { block, ram[block - 1] });
+    }
+
+    // ---------- String: ram[s] = capacidade, ram[s + 1] = tamanho, ram[s + 2 ...] = caracteres ----------
+
+    private int newString(int maxLength) {
+        if (maxLength < 0)
+            return error(14);
+        int s = alloc(maxLength + 2);
+        if (halted)
+            return 0;
+        ram[s] = maxLength;
+        ram[s + 1] = 0;
+        return s;
+    }
+
+    private int appendChar(int s, int c) {
+        if (ram[s + 1] >= ram[s])
+            return error(17);
+        ram[s + 2 + ram[s + 1]] = c;
+        ram[s + 1]++;
+        return s;
+    }
+
+    private int intValue(int s) {
+        int value = 0;
+        int i = 0;
+        boolean negative = ram[s + 1] > 0 && ram[s + 2] == '-';
+        if (negative)
+            i++;
+        for (; i < ram[s + 1]; i++) {
+            int c = ram[s + 2 + i];
+            if (c < '0' || c > '9')
+                break;
+            value = (short) (value * 10 + c - '0');
+        }
+        return negative ? (short) -value : value;
+    }
+
+    private int setInt(int s, int value) {
+        String digits = Integer.toString(value);
+        if (digits.length() > ram[s])
+            return error(19);
+        for (int i = 0; i < digits.length(); i++)
+            ram[s + 2 + i] = digits.charAt(i);
+        ram[s + 1] = digits.length();
+        return 0;
+    }
+
+    // ---------- Output ----------
+
+    private void printChar(int c) {
+        if (c == NEW_LINE) {
+            output.append('\n');
+        } else if (c == BACKSPACE) {
+            if (output.length() > 0)
+                output.setLength(output.length() - 1);
+        } else {
+            output.append((char) c);
+        }
+    }
+
+    private void printString(int s) {
+        for (int i = 0; i < ram[s + 1]; i++)
+            printChar(ram[s + 2 + i]);
+    }
+
+    // ---------- Screen: 256 linhas de 32 palavras, bit 0 e o pixel mais a esquerda ----------
+
+    private static boolean onScreen(int x, int y) {
+        return x >= 0 && x < 512 && y >= 0 && y < 256;
+    }
+
+    private void drawPixel(int x, int y) {
+        int address = SCREEN + y * 32 + x / 16;
+        int bit = 1 << (x & 15);
+        ram[address] = (short) (black ? ram[address] | bit : ram[address] & ~bit);
+    }
+
+    private int drawLine(int x1, int y1, int x2, int y2) {
+        if (!onScreen(x1, y1) || !onScreen(x2, y2))
+            return error(8);
+        int dx = Math.abs(x2 - x1);
+        int dy = -Math.abs(y2 - y1);
+        int sx = x1 < x2 ? 1 : -1;
+        int sy = y1 < y2 ? 1 : -1;
+        int err = dx + dy;
+        while (true) {
+            drawPixel(x1, y1);
+            if (x1 == x2 && y1 == y2)
+                return 0;
+            int e2 = 2 * err;
+            if (e2 >= dy) {
+                err += dy;
+                x1 += sx;
+            }
+            if (e2 <= dx) {
+                err += dx;
+                y1 += sy;
+            }
+        }
+    }
+
+    private int drawRectangle(int x1, int y1, int x2, int y2) {
+        if (!onScreen(x1, y1) || !onScreen(x2, y2) || x1 > x2 || y1 > y2)
+            return error(9);
+        for (int y = y1; y <= y2; y++)
+            for (int x = x1; x <= x2; x++)
+                drawPixel(x, y);
+        return 0;
+    }
+
+    private int drawCircle(int cx, int cy, int r) {
+        if (!onScreen(cx, cy))
+            return error(12);
+        if (r < 0 || r > 181 || !onScreen(cx - r, cy - r) || !onScreen(cx + r, cy + r))
+            return error(13);
+        for (int dy = -r; dy <= r; dy++) {
+            int half = (int) Math.sqrt(r * r - dy * dy);
+            for (int x = cx - half; x <= cx + half; x++)
+                drawPixel(x, cy + dy);
+        }
+        return 0;
+    }
+
+    // ---------- Keyboard: le da entrada fixa e ecoa na saida, como o SO faz na tela ----------
+
+    private int readChar() {
+        if (inputPosition >= input.length()) {
+            // o SO esperaria uma tecla para sempre
+            halted = true;
+            return 0;
+        }
+        int c = input.charAt(inputPosition++);
+        if (c == '\n')
+            c = NEW_LINE;
+        printChar(c);
+        return c;
+    }
+
+    private int readLine(int message) {
+        printString(message);
+        int line = newString(80);
+        while (!halted) {
+            int c = readChar();
+            if (c == NEW_LINE || halted)
+                break;
+            if (c == BACKSPACE) {
+                if (ram[line + 1] > 0)
+                    ram[line + 1]--;
+            } else if (ram[line + 1] < ram[line]) {
+                appendChar(line, c);
+            }
+        }
+        return line;
+    }
+}
@@ -0,0 +1,580 @@
+package br.ufma.ecp;
+
+import static br.ufma.ecp.VMCode.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import br.ufma.ecp.ClassFileWriter.Bytes;
+import br.ufma.ecp.VMWriter.Command;
+import br.ufma.ecp.VMWriter.Segment;
+
+/*
+ * Backend para a JVM: cada unidade da VM (uma classe Jack) vira uma classe jack/<Nome>
+ * e cada funcao um metodo estatico static int f(int, ...).
+ *
+ * A pilha da VM vira a pilha de operandos da JVM, que o nosso codigo deixa vazia em todo
+ * label. argument, local e pointer viram variaveis locais do metodo (pointer e salvo e
+ * restaurado a cada chamada na VM, entao tambem e local); static vira campo estatico da
+ * classe; this, that e temp leem e escrevem a RAM (int[]) compartilhada com o SO, que e o
+ * mesmo JackOS do interpretador. add, sub e neg voltam para 16 bits com i2s.
+ *
+ * Nao ha orcamento de instrucoes: um programa que nao termina nao termina aqui tambem.
+ */
+public class JvmBackend {
+
+    private static final String PACKAGE = "jack/";
+    private static final String SELF = "br/ufma/ecp/JvmBackend";
+    private static final String OS = "Lbr/ufma/ecp/JackOS;";
+
+    // opcodes da JVM
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int ILOAD = 0x15;
+    private static final int ISTORE = 0x36;
+    private static final int IALOAD = 0x2e;
+    private static final int IASTORE = 0x4f;
+    private static final int JVM_POP = 0x57;
+    private static final int IADD = 0x60;
+    private static final int ISUB = 0x64;
+    private static final int INEG = 0x74;
+    private static final int IAND = 0x7e;
+    private static final int IOR = 0x80;
+    private static final int IXOR = 0x82;
+    private static final int I2S = 0x93;
+    private static final int IFNE = 0x9a;
+    private static final int IF_ICMPEQ = 0x9f;
+    private static final int IF_ICMPNE = 0xa0;
+    private static final int IF_ICMPLT = 0xa1;
+    private static final int IF_ICMPGE = 0xa2;
+    private static final int IF_ICMPGT = 0xa3;
+    private static final int IF_ICMPLE = 0xa4;
+    private static final int JVM_GOTO = 0xa7;
+    private static final int IRETURN = 0xac;
+    private static final int GETSTATIC = 0xb2;
+    private static final int PUTSTATIC = 0xb3;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int WIDE = 0xc4;
+
+    // Sys.halt, Sys.error ou fim da entrada: desfaz a pilha de chamadas da JVM
+    public static final class Halt extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private Halt() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Halt HALT = new Halt();
+
+    private final Map<String, VMCode> units = new LinkedHashMap<>();
+    private String input = "";
+
+    // unidade que define cada funcao e quantos argumentos ela recebe
+    private final Map<String, String> owners = new HashMap<>();
+    private final Map<String, Integer> arities = new HashMap<>();
+
+    private final int[] ram = new int[32768];
+    private JackOS os;
+    private int returnValue;
+
+    // fileName da nome a classe gerada, como da nome aos statics na VM
+    public JvmBackend load(String fileName, VMCode code) {
+        units.put(fileName, code);
+        return this;
+    }
+
+    // todos os .vm de um diretorio, em ordem de nome
+    public JvmBackend load(File directory) throws IOException {
+        var files = directory.listFiles((dir, name) -> name.endsWith(".vm"));
+        if (files == null)
+            throw new IOException("not a directory: " + directory);
+        Arrays.sort(files);
+        for (File file : files) {
+            var name = file.getName();
+            load(name.substring(0, name.length() - 3), VMCode.parse(Files.readString(file.toPath())));
+        }
+        return this;
+    }
+
+    public JvmBackend withInput(String input) {
+        this.input = input;
+        return this;
+    }
+
+    // ---------- geracao ----------
+
+    // nome interno da classe gerada -> class file
+    public Map<String, byte[]> classFiles() {
+        resolve();
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        units.forEach((unit, code) -> result.put(PACKAGE + unit, generate(unit, code)));
+        return result;
+    }
+
+    private void resolve() {
+        owners.clear();
+        arities.clear();
+        Map<String, Integer> calls = new HashMap<>();
+        for (var unit : units.entrySet()) {
+            VMCode code = unit.getValue();
+            String function = null;
+            for (int i = 0; i < code.size(); i++) {
+                int insn = code.instruction(i);
+                int op = opcode(insn);
+                if (op == FUNCTION) {
+                    function = code.name(code.nameId(insn));
+                    if (owners.put(function, unit.getKey()) != null)
+                        throw new IllegalStateException("function defined twice: " + function);
+                    arities.putIfAbsent(function, 0);
+                } else if ((op == PUSH || op == POP) && VMCode.segment(insn) == Segment.ARG && function != null) {
+                    arities.merge(function, code.index(insn) + 1, Math::max);
+                } else if (op == CALL) {
+                    String name = code.name(code.nameId(insn));
+                    Integer previous = calls.put(name, code.count(insn));
+                    if (previous != null && previous != code.count(insn))
+                        throw new IllegalStateException(name + " is called with " + previous + " and "
+                                + code.count(insn) + " arguments");
+                }
+            }
+        }
+        calls.forEach((name, count) -> {
+            Integer used = arities.get(name);
+            if (used != null && used > count)
+                throw new IllegalStateException(name + " uses " + used + " arguments but is called with " + count);
+            if (used != null)
+                arities.put(name, count);
+        });
+    }
+
+    private static String descriptor(int nArgs) {
+        return "(" + "I".repeat(nArgs) + ")I";
+    }
+
+    private byte[] generate(String unit, VMCode code) {
+        String className = PACKAGE + unit;
+        var cf = new ClassFileWriter(className);
+        int access = ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC;
+        cf.field(access, "ram", "[I");
+        cf.field(access, "os", OS);
+
+        int statics = 0;
+        for (int i = 0; i < code.size(); i++) {
+            int insn = code.instruction(i);
+            if ((opcode(insn) == PUSH || opcode(insn) == POP) && VMCode.segment(insn) == Segment.STATIC)
+                statics = Math.max(statics, code.index(insn) + 1);
+        }
+        for (int s = 0; s < statics; s++)
+            cf.field(access, "s" + s, "I");
+
+        int from = 0;
+        while (from < code.size()) {
+            int to = from + 1;
+            while (to < code.size() && opcode(code.instruction(to)) != FUNCTION)
+                to++;
+            if (opcode(code.instruction(from)) != FUNCTION)
+                throw new IllegalStateException(unit + ": code outside of a function");
+            new MethodGenerator(cf, className, code, from, to).generate();
+            from = to;
+        }
+        return cf.toByteArray();
+    }
+
+    // gera o metodo de uma funcao, instrucoes [from, to)
+    private final class MethodGenerator {
+        private final ClassFileWriter cf;
+        private final String className;
+        private final VMCode code;
+        private final int from;
+        private final int to;
+        private final Bytes out = new Bytes();
+
+        private final int nArgs;
+        private final int nLocals;
+        private final int thisSlot;
+        private final int thatSlot;
+        private final int scratchSlot;
+
+        // posicao de cada label (por nameId) e desvios que esperam por ela
+        private final Map<Integer, Integer> labels = new HashMap<>();
+        private final List<int[]> fixups = new ArrayList<>();
+
+        private int depth;
+        private int maxDepth;
+
+        MethodGenerator(ClassFileWriter cf, String className, VMCode code, int from, int to) {
+            this.cf = cf;
+            this.className = className;
+            this.code = code;
+            this.from = from;
+            this.to = to;
+            int header = code.instruction(from);
+            nArgs = arities.get(code.name(code.nameId(header)));
+            nLocals = code.count(header);
+            thisSlot = nArgs + nLocals;
+            thatSlot = thisSlot + 1;
+            scratchSlot = thatSlot + 1;
+        }
+
+        void generate() {
+            for (int slot = nArgs; slot < scratchSlot; slot++) {
+                out.u1(ICONST_0);
+                store(slot);
+            }
+            for (int i = from + 1; i < to; i++)
+                i += translate(i);
+
+            for (int[] fixup : fixups) {
+                Integer target = labels.get(fixup[1]);
+                if (target == null)
+                    throw new IllegalStateException("undefined label " + code.name(fixup[1]));
+                int offset = target - fixup[0];
+                if (offset != (short) offset)
+                    throw new IllegalStateException("function too large for 16-bit branches");
+                out.patch2(fixup[0] + 1, offset);
+            }
+            String name = code.name(code.nameId(code.instruction(from)));
+            cf.method(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC, methodName(name),
+                    descriptor(nArgs), maxDepth + 2, scratchSlot + 1, out.toByteArray());
+        }
+
+        // devolve quantas instrucoes seguintes foram consumidas junto com a atual
+        private int translate(int i) {
+            int insn = code.instruction(i);
+            switch (opcode(insn)) {
+                case PUSH -> push(VMCode.segment(insn), code.index(insn));
+                case POP -> pop(VMCode.segment(insn), code.index(insn));
+                case ARITHMETIC -> {
+                    return arithmetic(i, VMCode.command(insn));
+                }
+                case LABEL -> labels.put(code.nameId(insn), out.position());
+                case GOTO -> jump(JVM_GOTO, code.nameId(insn), 0);
+                case IF_GOTO -> jump(IFNE, code.nameId(insn), 1);
+                case CALL -> call(code.name(code.nameId(insn)), code.count(insn));
+                case RETURN -> {
+                    out.u1(IRETURN);
+                    depth = 0;
+                }
+                default -> throw new IllegalStateException("invalid opcode " + opcode(insn));
+            }
+            return 0;
+        }
+
+        private void grow(int n) {
+            depth += n;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        private void constant(int value) {
+            if (value >= -1 && value <= 5) {
+                out.u1(ICONST_0 + value);
+            } else if (value == (byte) value) {
+                out.u1(BIPUSH);
+                out.u1(value);
+            } else if (value == (short) value) {
+                out.u1(SIPUSH);
+                out.u2(value);
+            } else {
+                out.u1(LDC_W);
+                out.u2(cf.integer(value));
+            }
+        }
+
+        private void local(int opcode, int slot) {
+            if (slot > 255) {
+                out.u1(WIDE);
+                out.u1(opcode);
+                out.u2(slot);
+            } else {
+                out.u1(opcode);
+                out.u1(slot);
+            }
+        }
+
+        private void load(int slot) {
+            local(ILOAD, slot);
+        }
+
+        private void store(int slot) {
+            local(ISTORE, slot);
+        }
+
+        private void getStatic(String owner, String name, String descriptor) {
+            out.u1(GETSTATIC);
+            out.u2(cf.fieldRef(owner, name, descriptor));
+        }
+
+        // empilha o endereco de this i, that i ou temp i; como no interpretador, um ponteiro fora
+        // de 0..32767 da a volta na RAM em vez de estourar o array
+        private void address(Segment segment, int index) {
+            getStatic(className, "ram", "[I");
+            if (segment == Segment.TEMP) {
+                constant(5 + index);
+                grow(2);
+            } else {
+                load(segment == Segment.THIS ? thisSlot : thatSlot);
+                grow(3);
+                if (index != 0) {
+                    constant(index);
+                    out.u1(IADD);
+                }
+                constant(0x7FFF);
+                out.u1(IAND);
+                depth--;
+            }
+        }
+
+        private void push(Segment segment, int index) {
+            switch (segment) {
+                case CONST -> constant((short) index);
+                case ARG -> load(index);
+                case LOCAL -> load(nArgs + index);
+                case POINTER -> load(index == 0 ? thisSlot : thatSlot);
+                case STATIC -> getStatic(className, "s" + index, "I");
+                default -> {
+                    address(segment, index);
+                    out.u1(IALOAD);
+                    depth -= 2;
+                }
+            }
+            grow(1);
+        }
+
+        private void pop(Segment segment, int index) {
+            switch (segment) {
+                case ARG -> store(index);
+                case LOCAL -> store(nArgs + index);
+                case POINTER -> store(index == 0 ? thisSlot : thatSlot);
+                case STATIC -> {
+                    out.u1(PUTSTATIC);
+                    out.u2(cf.fieldRef(className, "s" + index, "I"));
+                }
+                case CONST -> throw new IllegalStateException("pop constant");
+                default -> {
+                    // o valor esta embaixo do endereco que o iastore espera
+                    store(scratchSlot);
+                    address(segment, index);
+                    load(scratchSlot);
+                    grow(1);
+                    out.u1(IASTORE);
+                    depth -= 3;
+                }
+            }
+            depth--;
+        }
+
+        private int arithmetic(int i, Command command) {
+            switch (command) {
+                case ADD -> binary(IADD, true);
+                case SUB -> binary(ISUB, true);
+                case AND -> binary(IAND, false);
+                case OR -> binary(IOR, false);
+                case NEG -> {
+                    out.u1(INEG);
+                    out.u1(I2S);
+                }
+                case NOT -> {
+                    constant(-1);
+                    grow(1);
+                    out.u1(IXOR);
+                    depth--;
+                }
+                default -> {
+                    return compare(i, command);
+                }
+            }
+            return 0;
+        }
+
+        private void binary(int opcode, boolean wrap) {
+            out.u1(opcode);
+            if (wrap)
+                out.u1(I2S);
+            depth--;
+        }
+
+        // eq/gt/lt [not] if-goto vira um if_icmp direto; sozinho, empilha -1 ou 0
+        private int compare(int i, Command command) {
+            int next = i + 1;
+            boolean negated = next < to && code.instruction(next) == encode(ARITHMETIC, Command.NOT.ordinal());
+            if (negated)
+                next++;
+            if (next < to && opcode(code.instruction(next)) == IF_GOTO) {
+                int opcode = switch (command) {
+                    case EQ -> negated ? IF_ICMPNE : IF_ICMPEQ;
+                    case GT -> negated ? IF_ICMPLE : IF_ICMPGT;
+                    default -> negated ? IF_ICMPGE : IF_ICMPLT;
+                };
+                jump(opcode, code.nameId(code.instruction(next)), 2);
+                return next - i;
+            }
+            int opcode = switch (command) {
+                case EQ -> IF_ICMPEQ;
+                case GT -> IF_ICMPGT;
+                default -> IF_ICMPLT;
+            };
+            // if_icmp +7; iconst_0; goto +4; iconst_m1
+            out.u1(opcode);
+            out.u2(7);
+            out.u1(ICONST_0);
+            out.u1(JVM_GOTO);
+            out.u2(4);
+            out.u1(ICONST_0 - 1);
+            depth--;
+            return 0;
+        }
+
+        private void jump(int opcode, int label, int pops) {
+            fixups.add(new int[] { out.position(), label });
+            out.u1(opcode);
+            out.u2(0);
+            depth -= pops;
+        }
+
+        private void call(String name, int nArgs) {
+            String owner = owners.get(name);
+            int nativeId = JackOS.id(name);
+            if (owner != null) {
+                out.u1(INVOKESTATIC);
+                out.u2(cf.methodRef(PACKAGE + owner, methodName(name), descriptor(nArgs)));
+            } else if (nativeId >= 0) {
+                if (JackOS.arity(nativeId) != nArgs)
+                    throw new IllegalStateException(name + " takes " + JackOS.arity(nativeId) + " arguments");
+                getStatic(className, "os", OS);
+                constant(nativeId);
+                grow(2);
+                out.u1(INVOKESTATIC);
+                out.u2(cf.methodRef(SELF, "call" + nArgs, "(" + "I".repeat(nArgs) + OS + "I)I"));
+                depth -= 2;
+            } else {
+                // so e erro se for executado
+                for (int k = 0; k < nArgs; k++)
+                    out.u1(JVM_POP);
+                out.u1(LDC_W);
+                out.u2(cf.string(name));
+                grow(1);
+                out.u1(INVOKESTATIC);
+                out.u2(cf.methodRef(SELF, "undefined", "(Ljava/lang/String;)I"));
+                depth--;
+            }
+            depth -= nArgs;
+            grow(1);
+        }
+    }
+
+    // Classe.funcao -> funcao
+    private static String methodName(String function) {
+        return function.substring(function.indexOf('.') + 1);
+    }
+
+    // ---------- chamadas do codigo gerado ----------
+
+    public static int call0(JackOS os, int id) {
+        return checked(os, os.invoke(id, 0, 0, 0, 0));
+    }
+
+    public static int call1(int a, JackOS os, int id) {
+        return checked(os, os.invoke(id, a, 0, 0, 0));
+    }
+
+    public static int call2(int a, int b, JackOS os, int id) {
+        return checked(os, os.invoke(id, a, b, 0, 0));
+    }
+
+    public static int call3(int a, int b, int c, JackOS os, int id) {
+        return checked(os, os.invoke(id, a, b, c, 0));
+    }
+
+    public static int call4(int a, int b, int c, int d, JackOS os, int id) {
+        return checked(os, os.invoke(id, a, b, c, d));
+    }
+
+    private static int checked(JackOS os, int value) {
+        if (os.halted())
+            throw HALT;
+        return value;
+    }
+
+    public static int undefined(String name) {
+        throw new IllegalStateException("undefined function " + name);
+    }
+
+    // ---------- execucao ----------
+
+    private static final class JackClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+
+        JackClassLoader(Map<String, byte[]> classes) {
+            super(JvmBackend.class.getClassLoader());
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name.replace('.', '/'));
+            if (bytes == null)
+                throw new ClassNotFoundException(name);
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    // carrega as classes geradas e chama entry com argumentos 0; devolve true ao terminar
+    // (por return, Sys.halt ou Sys.error)
+    public boolean run(String entry) {
+        var classFiles = classFiles();
+        String owner = owners.get(entry);
+        if (owner == null)
+            throw new IllegalStateException("undefined function " + entry);
+
+        Arrays.fill(ram, 0);
+        os = new JackOS(ram).withInput(input);
+        var loader = new JackClassLoader(classFiles);
+        try {
+            for (String name : classFiles.keySet()) {
+                Class<?> c = loader.loadClass(name.replace('/', '.'));
+                c.getField("ram").set(null, ram);
+                c.getField("os").set(null, os);
+            }
+            Class<?> c = loader.loadClass((PACKAGE + owner).replace('/', '.'));
+            int nArgs = arities.get(entry);
+            Class<?>[] types = new Class<?>[nArgs];
+            Arrays.fill(types, int.class);
+            Object[] args = new Object[nArgs];
+            Arrays.fill(args, 0);
+            returnValue = (Integer) c.getMethod(methodName(entry), types).invoke(null, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof Halt)
+                return true;
+            if (e.getCause() instanceof RuntimeException runtime)
+                throw runtime;
+            if (e.getCause() instanceof StackOverflowError)
+                throw new IllegalStateException("stack overflow in " + entry, e.getCause());
+            throw new IllegalStateException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+        return true;
+    }
+
+    public int returnValue() {
+        return returnValue;
+    }
+
+    public String output() {
+        return os.output();
+    }
+
+    int[] ram() {
+        return ram;
+    }
+}
@@ -0,0 +1,51 @@
+package br.ufma.ecp;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/*
+ * Offsets de inicio de cada linha, montados uma unica vez com uma busca em bloco
+ * por '\n'. Linha e coluna de um offset saem de uma busca binaria, entao o Scanner
+ * guarda so offsets e ninguem conta linhas byte a byte.
+ */
+public class LineIndex {
+
+    private final int[] lineStarts;
+    private final int lines;
+
+    private LineIndex(int[] lineStarts, int lines) {
+        this.lineStarts = lineStarts;
+        this.lines = lines;
+    }
+
+    // a entrada e a regiao entre position e limit, como no Scanner
+    public static LineIndex of(ByteBuffer input) {
+        ByteBuffer buffer = Swar.littleEndian(input.slice());
+        int length = buffer.remaining();
+        int[] starts = new int[Math.max(16, length / 32)];
+        int lines = 1;
+        int pos = Swar.indexOf(buffer, 0, length, (byte) '\n', (byte) '\n');
+        while (pos < length) {
+            if (lines == starts.length)
+                starts = Arrays.copyOf(starts, lines * 2);
+            starts[lines++] = pos + 1;
+            pos = Swar.indexOf(buffer, pos + 1, length, (byte) '\n', (byte) '\n');
+        }
+        return new LineIndex(starts, lines);
+    }
+
+    // linha (a partir de 1) que contem o offset
+    public int line(int offset) {
+        int index = Arrays.binarySearch(lineStarts, 0, lines, offset);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    // coluna (a partir de 1) do offset dentro da sua linha
+    public int column(int offset) {
+        return offset - lineStarts[line(offset) - 1] + 1;
+    }
+
+    public int lineCount() {
+        return lines;
+    }
+}
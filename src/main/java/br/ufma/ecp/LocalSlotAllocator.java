@@ -0,0 +1,166 @@
+package br.ufma.ecp;
+
+import static br.ufma.ecp.VMCode.*;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import br.ufma.ecp.ControlFlowGraph.Block;
+import br.ufma.ecp.VMWriter.Segment;
+
+/*
+ * Reaproveita slots de local. Uma analise de vivacidade sobre o grafo de cada funcao
+ * diz em que pontos cada local ainda vai ser lido; dois locais interferem se um e
+ * escrito enquanto o outro esta vivo. Locais sem interferencia dividem o mesmo slot
+ * (coloracao gulosa na ordem dos indices), o nLocals da funcao cai para o numero de
+ * slots usados e os push/pop local sao renumerados.
+ *
+ * Um local lido antes de ser escrito conta com o 0 que a VM poe no slot na entrada;
+ * ele fica vivo desde a entrada, entao nenhum local escrito nesse trecho divide o slot.
+ */
+public class LocalSlotAllocator {
+
+    private int localsBefore;
+    private int localsAfter;
+
+    public void optimize(VMCode code) {
+        int size = code.size();
+        int from = 0;
+        while (from < size) {
+            int to = from + 1;
+            while (to < size && opcode(code.instruction(to)) != FUNCTION)
+                to++;
+            if (opcode(code.instruction(from)) == FUNCTION)
+                allocate(code, from, to);
+            from = to;
+        }
+    }
+
+    private void allocate(VMCode code, int from, int to) {
+        int header = code.instruction(from);
+        int nLocals = code.count(header);
+        localsBefore += nLocals;
+        var graph = nLocals > 1 ? ControlFlowGraph.build(code, from, to) : null;
+        if (graph == null) {
+            localsAfter += nLocals;
+            return;
+        }
+
+        List<Block> blocks = graph.blocks();
+        int n = blocks.size();
+        BitSet[] use = new BitSet[n];
+        BitSet[] def = new BitSet[n];
+        for (Block b : blocks) {
+            use[b.index] = new BitSet(nLocals);
+            def[b.index] = new BitSet(nLocals);
+            for (int insn : b.body()) {
+                int local = local(code, insn, PUSH);
+                if (local >= 0 && !def[b.index].get(local))
+                    use[b.index].set(local);
+                local = local(code, insn, POP);
+                if (local >= 0)
+                    def[b.index].set(local);
+            }
+        }
+
+        // vivacidade: in = use + (out - def), out = uniao dos in dos sucessores
+        BitSet[] in = new BitSet[n];
+        BitSet[] out = new BitSet[n];
+        for (int b = 0; b < n; b++) {
+            in[b] = new BitSet(nLocals);
+            out[b] = new BitSet(nLocals);
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = n - 1; b >= 0; b--) {
+                var o = new BitSet(nLocals);
+                for (Block s : blocks.get(b).successors())
+                    o.or(in[s.index]);
+                var i = (BitSet) o.clone();
+                i.andNot(def[b]);
+                i.or(use[b]);
+                if (!i.equals(in[b]) || !o.equals(out[b])) {
+                    in[b] = i;
+                    out[b] = o;
+                    changed = true;
+                }
+            }
+        }
+
+        // interferencia: cada escrita interfere com o que esta vivo logo depois dela
+        BitSet[] interferes = new BitSet[nLocals];
+        BitSet referenced = new BitSet(nLocals);
+        for (int v = 0; v < nLocals; v++)
+            interferes[v] = new BitSet(nLocals);
+        for (Block b : blocks) {
+            var live = (BitSet) out[b.index].clone();
+            int[] body = b.body();
+            for (int k = body.length - 1; k >= 0; k--) {
+                int defined = local(code, body[k], POP);
+                if (defined >= 0) {
+                    referenced.set(defined);
+                    for (int u = live.nextSetBit(0); u >= 0; u = live.nextSetBit(u + 1)) {
+                        if (u != defined) {
+                            interferes[defined].set(u);
+                            interferes[u].set(defined);
+                        }
+                    }
+                    live.clear(defined);
+                }
+                int used = local(code, body[k], PUSH);
+                if (used >= 0) {
+                    referenced.set(used);
+                    live.set(used);
+                }
+            }
+        }
+        // locais vivos na entrada dependem do 0 inicial: ficam sem dividir slot entre si
+        BitSet entry = in[0];
+        for (int e = entry.nextSetBit(0); e >= 0; e = entry.nextSetBit(e + 1)) {
+            interferes[e].or(entry);
+            interferes[e].clear(e);
+        }
+
+        int[] slot = new int[nLocals];
+        Arrays.fill(slot, -1);
+        int slots = 0;
+        for (int v = referenced.nextSetBit(0); v >= 0; v = referenced.nextSetBit(v + 1)) {
+            var taken = new BitSet();
+            for (int u = interferes[v].nextSetBit(0); u >= 0; u = interferes[v].nextSetBit(u + 1))
+                if (slot[u] >= 0)
+                    taken.set(slot[u]);
+            slot[v] = taken.nextClearBit(0);
+            slots = Math.max(slots, slot[v] + 1);
+        }
+        localsAfter += slots;
+        if (slots == nLocals)
+            return;
+
+        code.set(from, encode(FUNCTION, code.namedPayload(code.nameId(header), slots)));
+        for (int i = from + 1; i < to; i++) {
+            int insn = code.instruction(i);
+            int op = opcode(insn);
+            int local = local(code, insn, op);
+            if (local >= 0)
+                code.set(i, encode(op, code.memoryPayload(Segment.LOCAL, slot[local])));
+        }
+    }
+
+    // indice do local de um push/pop local com o opcode pedido, ou -1
+    private static int local(VMCode code, int insn, int opcode) {
+        if (opcode(insn) != opcode || (opcode != PUSH && opcode != POP) || VMCode.segment(insn) != Segment.LOCAL)
+            return -1;
+        return code.index(insn);
+    }
+
+    public Map<String, Integer> hits() {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        result.put("before", localsBefore);
+        result.put("after", localsAfter);
+        return result;
+    }
+}
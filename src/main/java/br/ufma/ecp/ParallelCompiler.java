@@ -0,0 +1,127 @@
+package br.ufma.ecp;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/*
+ * Driver que compila os arquivos de um diretorio em paralelo (-j N). Cada tarefa cria o
+ * proprio Parser, Scanner e SymbolTable, entao nada e compartilhado entre elas.
+ *
+ * Os arquivos maiores comecam primeiro, para que um arquivo grande nao fique sozinho no
+ * fim da compilacao, mas os resultados (mensagens e erros) sao entregues na ordem dos
+ * nomes, como na compilacao sequencial. Com fail-fast, as tarefas que ainda nao
+ * comecaram sao descartadas depois do primeiro arquivo com erro.
+ *
+ * Threads virtuais (--virtual-threads) so existem a partir do Java 21; o executor e
+ * procurado por reflexao e, se nao existir, usa threads de plataforma.
+ */
+public class ParallelCompiler {
+
+    private final int jobs;
+    private final boolean virtualThreads;
+    private final boolean failFast;
+    // avisos do proprio driver, no mesmo stream dos erros da compilacao
+    private final PrintStream err;
+
+    public ParallelCompiler(CompilerOptions options, PrintStream err) {
+        this.err = err;
+        this.jobs = options.jobs();
+        this.virtualThreads = options.virtualThreads();
+        this.failFast = options.failFast();
+    }
+
+    // compila files (em ordem de nome) e entrega cada resultado a report na mesma ordem;
+    // devolve quantos arquivos foram descartados pelo fail-fast
+    public <T> int run(List<File> files, Function<File, T> compile, Predicate<T> failed, Consumer<T> report) {
+        if (jobs <= 1 && !virtualThreads)
+            return runSequential(files, compile, failed, report);
+
+        var stop = new AtomicBoolean();
+        var slots = new Semaphore(jobs, true);
+        List<Integer> bySize = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++)
+            bySize.add(i);
+        bySize.sort(Comparator.comparingLong((Integer i) -> files.get(i).length()).reversed());
+
+        ExecutorService executor = executor();
+        List<Future<T>> futures = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++)
+            futures.add(null);
+        try {
+            for (int i : bySize) {
+                File file = files.get(i);
+                futures.set(i, executor.submit(() -> {
+                    if (stop.get())
+                        return null;
+                    // com threads virtuais o executor nao limita nada: -j limita aqui
+                    slots.acquire();
+                    try {
+                        if (stop.get())
+                            return null;
+                        T result = compile.apply(file);
+                        if (failFast && failed.test(result))
+                            stop.set(true);
+                        return result;
+                    } finally {
+                        slots.release();
+                    }
+                }));
+            }
+
+            int skipped = 0;
+            for (var future : futures) {
+                T result = future.get();
+                if (result == null)
+                    skipped++;
+                else
+                    report.accept(result);
+            }
+            return skipped;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("compilation interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("compilation failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private <T> int runSequential(List<File> files, Function<File, T> compile, Predicate<T> failed,
+            Consumer<T> report) {
+        for (int i = 0; i < files.size(); i++) {
+            T result = compile.apply(files.get(i));
+            report.accept(result);
+            if (failFast && failed.test(result))
+                return files.size() - i - 1;
+        }
+        return 0;
+    }
+
+    ExecutorService executor() {
+        if (virtualThreads) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                err.println("virtual threads need Java 21; using " + jobs + " platform threads");
+            }
+        }
+        return Executors.newFixedThreadPool(jobs, task -> {
+            var thread = new Thread(task, "jack-compiler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
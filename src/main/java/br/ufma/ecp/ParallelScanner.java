@@ -0,0 +1,178 @@
+package br.ufma.ecp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import br.ufma.ecp.token.TokenBuffer;
+import br.ufma.ecp.token.TokenType;
+
+/*
+ * Lexer paralelo para arquivos muito grandes. A entrada e dividida em pedacos
+ * que comecam no inicio de uma linha e cada pedaco e lexado de forma especulativa,
+ * como se comecasse fora de comentarios e strings. Depois os pedacos sao costurados
+ * em ordem: o lexer sequencial so depende da posicao onde o proximo token comeca a
+ * ser procurado, entao um pedaco e aproveitado a partir do primeiro ponto em que ele
+ * passou pela mesma posicao que a costura. Se o pedaco comecou dentro de um comentario
+ * ou de uma string, a costura relexa em sequencia ate reencontrar um desses pontos.
+ * O resultado e identico ao do Scanner sequencial.
+ */
+public class ParallelScanner {
+
+    // abaixo disso o custo de dividir e costurar nao compensa
+    public static final int THRESHOLD = 4 << 20;
+    static final int CHUNK_SIZE = 1 << 20;
+
+    private final ByteBuffer input;
+    private final String file;
+    private final boolean swar;
+    private final int length;
+
+    private ParallelScanner(ByteBuffer input, String file, boolean swar) {
+        this.input = input.slice();
+        this.file = file;
+        this.swar = swar;
+        this.length = this.input.remaining();
+    }
+
+    public static TokenBuffer tokenize(ByteBuffer input, String file, Diagnostics diagnostics) {
+        if (input.remaining() < THRESHOLD)
+            return new Scanner(input, file, diagnostics).tokenize();
+        return tokenize(input, file, diagnostics, ForkJoinPool.commonPool(), CHUNK_SIZE, Swar.ENABLED);
+    }
+
+    static TokenBuffer tokenize(ByteBuffer input, String file, Diagnostics diagnostics,
+            ForkJoinPool pool, int chunkSize, boolean swar) {
+        var scanner = new ParallelScanner(input, file, swar);
+        TokenBuffer tokens = scanner.run(pool, chunkSize);
+        if (tokens == null) // erro lexico: refaz em sequencia para reportar exatamente como o Scanner
+            return new Scanner(input, file, diagnostics, swar).tokenize();
+        return tokens;
+    }
+
+    // resultado especulativo de um pedaco
+    private static class Chunk {
+        final int from;
+        final int to;
+        TokenBuffer tokens;
+        // posicao (antes de espacos e comentarios) em que cada token comecou a ser procurado
+        int[] positions;
+        int endPosition;
+        boolean errors;
+
+        Chunk(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private TokenBuffer run(ForkJoinPool pool, int chunkSize) {
+        List<Chunk> chunks = split(chunkSize);
+        List<RecursiveTask<Chunk>> tasks = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            tasks.add(new RecursiveTask<Chunk>() {
+                @Override
+                protected Chunk compute() {
+                    return lex(chunk);
+                }
+            });
+        }
+        for (var task : tasks)
+            pool.execute(task);
+        for (var task : tasks)
+            if (task.join().errors)
+                return null;
+
+        return stitch(chunks);
+    }
+
+    private List<Chunk> split(int chunkSize) {
+        List<Chunk> chunks = new ArrayList<>();
+        int from = 0;
+        while (from < length) {
+            int to = from + chunkSize;
+            if (to >= length) {
+                to = length;
+            } else {
+                while (to < length && input.get(to - 1) != '\n')
+                    to++;
+            }
+            chunks.add(new Chunk(from, to));
+            from = to;
+        }
+        if (chunks.isEmpty())
+            chunks.add(new Chunk(0, 0));
+        return chunks;
+    }
+
+    private Chunk lex(Chunk chunk) {
+        var diagnostics = new Diagnostics();
+        var scanner = new Scanner(input, file, diagnostics, swar);
+        scanner.seek(chunk.from);
+
+        var tokens = new TokenBuffer(input, Math.max(16, (chunk.to - chunk.from) / 16));
+        int[] positions = new int[64];
+        int count = 0;
+        do {
+            if (count == positions.length)
+                positions = Arrays.copyOf(positions, count * 2);
+            positions[count++] = scanner.position();
+        } while (scanner.scanInto(tokens) != TokenType.EOF && scanner.position() < chunk.to);
+
+        chunk.tokens = tokens;
+        chunk.positions = Arrays.copyOf(positions, count);
+        chunk.endPosition = scanner.position();
+        chunk.errors = diagnostics.hasErrors();
+        return chunk;
+    }
+
+    private TokenBuffer stitch(List<Chunk> chunks) {
+        var result = new TokenBuffer(input, Math.max(16, length / 16));
+        var diagnostics = new Diagnostics();
+        var scanner = new Scanner(input, file, diagnostics, swar);
+        int position = 0;
+
+        for (Chunk chunk : chunks) {
+            if (position >= chunk.to)
+                continue; // o pedaco inteiro ja foi consumido por um token ou comentario anterior
+
+            int sync = Arrays.binarySearch(chunk.positions, position);
+            if (sync < 0) {
+                // pedaco comecou no meio de um comentario ou string: relexa ate reencontrar um ponto conhecido
+                scanner.seek(position);
+                int next = -sync - 1;
+                while (true) {
+                    if (scanner.scanInto(result) == TokenType.EOF)
+                        return diagnostics.hasErrors() ? null : result;
+                    position = scanner.position();
+                    while (next < chunk.positions.length && chunk.positions[next] < position)
+                        next++;
+                    if (next < chunk.positions.length && chunk.positions[next] == position) {
+                        sync = next;
+                        break;
+                    }
+                    if (position >= chunk.to)
+                        break;
+                }
+                if (diagnostics.hasErrors())
+                    return null;
+                if (sync < 0)
+                    continue;
+            }
+
+            result.addAll(chunk.tokens, sync);
+            if (result.type(result.size() - 1) == TokenType.EOF)
+                return result;
+            position = chunk.endPosition;
+        }
+
+        // a entrada acabou exatamente no fim de um pedaco
+        scanner.seek(position);
+        while (scanner.scanInto(result) != TokenType.EOF)
+            ;
+        return diagnostics.hasErrors() ? null : result;
+    }
+}
@@ -0,0 +1,23 @@
+package br.ufma.ecp;
+
+import br.ufma.ecp.token.TokenBuffer;
+
+/*
+ * Ganchos chamados pelo Parser durante a analise. O padrao nao faz nada, entao a
+ * arvore XML so e montada quando um XMLBuilder e anexado ao Parser.
+ */
+public interface ParseListener {
+
+    ParseListener NONE = new ParseListener() {
+    };
+
+    default void startNonTerminal(String name) {
+    }
+
+    default void endNonTerminal(String name) {
+    }
+
+    // token consumido; o lexema so e lido do buffer se o listener pedir
+    default void terminal(TokenBuffer tokens, int index) {
+    }
+}
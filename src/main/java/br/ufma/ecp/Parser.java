@@ -1,6 +1,12 @@
 package br.ufma.ecp;
 
-import br.ufma.ecp.token.Token;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import br.ufma.ecp.token.TokenBuffer;
 import br.ufma.ecp.token.TokenType;
 import static br.ufma.ecp.token.TokenType.*;
 
@@ -19,35 +25,80 @@ public class Parser {
     private int whileLabelNum = 0;
 
 
-    private Scanner scan;
+    private TokenBuffer tokens;
+    private String fileName;
+    private Diagnostics diagnostics;
     private String className = "";
-    private Token currentToken;
-    private Token peekToken;
-    private StringBuilder xmlOutput = new StringBuilder();
+    // indices no buffer de tokens
+    private int currentToken = -1;
+    private int peekToken = 0;
+    private ParseListener listener = ParseListener.NONE;
+    private XMLBuilder xmlBuilder;
+    private CompilerOptions options = new CompilerOptions();
+    // literal -> id da funcao Classe.__strN, na ordem em que aparecem
+    private Map<String, Integer> stringPool = new LinkedHashMap<>();
+
+    // se o ultimo termo/expressao compilado e uma constante conhecida (valor de 16 bits)
+    private boolean termConstant;
+    private int termValue;
 
     public Parser(byte[] input) {
-        scan = new Scanner(input);
-        nextToken();
+        this(ByteBuffer.wrap(input));
+    }
+
+    public Parser(ByteBuffer input) {
+        this(input, "", new Diagnostics());
+    }
+
+    public Parser(ByteBuffer input, String fileName, Diagnostics diagnostics) {
+        this(new Scanner(input, fileName, diagnostics).tokenize(), fileName, diagnostics);
+    }
+
+    public Parser(TokenBuffer tokens, String fileName, Diagnostics diagnostics) {
+        this.tokens = tokens;
+        this.fileName = fileName;
+        this.diagnostics = diagnostics;
     }
 
     private void nextToken() {
         currentToken = peekToken;
-        peekToken = scan.nextToken();
+        if (peekToken < tokens.size() - 1) // o ultimo token e sempre o EOF
+            peekToken++;
+    }
+
+    private TokenType peekType() {
+        return tokens.type(peekToken);
+    }
+
+    private TokenType currentType() {
+        return tokens.type(currentToken);
     }
 
+    private String currentLexeme() {
+        return tokens.lexeme(currentToken);
+    }
+
+    // erros de sintaxe ficam registrados em diagnostics(); a classe com erro nao gera saida valida
     public void parse() {
-        parseClass();
+        try {
+            parseClass();
+        } catch (ParseError e) {
+            // ja registrado em diagnostics
+        }
+    }
+
+    public Diagnostics diagnostics() {
+        return diagnostics;
     }
 
     void parseClass() {
-        printNonTerminal("class");
+        startNonTerminal("class");
         expectPeek(CLASS);
         expectPeek(IDENT);
-        className = currentToken.lexeme;
+        className = currentLexeme();
         expectPeek(LBRACE);
         
         while (peekTokenIs(STATIC) || peekTokenIs(FIELD)) {
-            System.out.println(peekToken);
             parseClassVarDec();
         }
     
@@ -56,31 +107,83 @@ public class Parser {
         }
 
         expectPeek(RBRACE);
+        writeStringPool();
 
-        printNonTerminal("/class");
+        endNonTerminal("class");
+    }
+
+    private void writeStringLiteral(String value) {
+        vmWriter.writePush(Segment.CONST, value.length());
+        vmWriter.writeCall("String.new", 1);
+        for (int i = 0; i < value.length(); i++) {
+            vmWriter.writePush(Segment.CONST, value.charAt(i));
+            vmWriter.writeCall("String.appendChar", 2);
+        }
+    }
+
+    // funcao que devolve a string do literal, montada so na primeira chamada; literais iguais dividem a funcao
+    private String pooledString(String value) {
+        int id = stringPool.computeIfAbsent(value, v -> stringPool.size());
+        return className + ".__str" + id;
+    }
+
+    // cada literal do pool fica num static depois dos statics da classe
+    private void writeStringPool() {
+        int base = symbolTable.varCount(Kind.STATIC);
+        for (var entry : stringPool.entrySet()) {
+            int slot = base + entry.getValue();
+            vmWriter.writeFunction(className + ".__str" + entry.getValue(), 0);
+            vmWriter.writePush(Segment.STATIC, slot);
+            vmWriter.writeIf("STR_READY");
+            writeStringLiteral(entry.getKey());
+            vmWriter.writePop(Segment.STATIC, slot);
+            vmWriter.writeLabel("STR_READY");
+            vmWriter.writePush(Segment.STATIC, slot);
+            vmWriter.writeReturn();
+        }
     }
 
 
     // funções auxiliares
+    public void setParseListener(ParseListener listener) {
+        this.listener = listener;
+    }
+
+    // anexa o XMLBuilder; sem isso o parser so gera codigo de VM
+    public Parser withXMLOutput() {
+        xmlBuilder = new XMLBuilder();
+        listener = xmlBuilder;
+        return this;
+    }
+
+    public Parser withOptions(CompilerOptions options) {
+        this.options = options;
+        return this;
+    }
+
     public String XMLOutput() {
-        return xmlOutput.toString();
+        return xmlBuilder == null ? "" : xmlBuilder.output();
     }
 
-    private void printNonTerminal(String nterminal) {
-        xmlOutput.append(String.format("<%s>\r\n", nterminal));
+    private void startNonTerminal(String name) {
+        listener.startNonTerminal(name);
+    }
+
+    private void endNonTerminal(String name) {
+        listener.endNonTerminal(name);
     }
 
     boolean peekTokenIs(TokenType type) {
-        return peekToken.type == type;
+        return peekType() == type;
     }
 
     boolean currentTokenIs(TokenType type) {
-        return currentToken.type == type;
+        return currentType() == type;
     }
 
     private void expectPeek(TokenType... types) {
         for (TokenType type : types) {
-            if (peekToken.type == type) {
+            if (peekType() == type) {
                 expectPeek(type);
                 return;
             }
@@ -91,55 +194,71 @@ public class Parser {
     }
 
     private void expectPeek(TokenType type) {
-        if (peekToken.type == type) {
+        if (peekType() == type) {
             nextToken();
-            xmlOutput.append(String.format("%s\r\n", currentToken.toString()));
+            listener.terminal(tokens, currentToken);
         } else {
             throw error(peekToken, "Expected " + type.name());
         }
     }
 
-    private static void report(int line, String where,
-            String message) {
-        System.err.println(
-                "[line " + line + "] Error" + where + ": " + message);
-    }
-
-    private ParseError error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
+    private ParseError error(int token, String message) {
+        String where;
+        if (tokens.type(token) == TokenType.EOF) {
+            where = " at end";
         } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
+            where = " at '" + tokens.lexeme(token) + "'";
         }
+        diagnostics.error(fileName, tokens.line(token), tokens.column(token), message + where);
         return new ParseError();
     }
 
+    private Symbol resolve(String name) {
+        Symbol symbol = symbolTable.resolve(name);
+        if (symbol == null)
+            throw error(currentToken, "Undefined variable");
+        return symbol;
+    }
+
+    private void define(String name, String type, Kind kind) {
+        if (symbolTable.isDefined(name, kind))
+            throw error(currentToken, "Variable " + name + " already defined");
+        symbolTable.define(name, type, kind);
+    }
+
     // term -> number | IDENT | stringConstant | keywordConstant
     void parseTerm() {
-        printNonTerminal("term");
+        startNonTerminal("term");
         TokenType op;
-        switch (peekToken.type) {
+        int start = vmWriter.code().size();
+        boolean constant = false;
+        int value = 0;
+        switch (peekType()) {
             case NUMBER:
                 expectPeek(TokenType.NUMBER);
-                vmWriter.writePush(Segment.CONST, Integer.parseInt(currentToken.lexeme));
+                value = tokens.intValue(currentToken);
+                if (value < 0)
+                    throw error(currentToken, "integer constant out of range");
+                constant = true;
+                vmWriter.writePush(Segment.CONST, value);
                 break;
             case STRING:
                 expectPeek(TokenType.STRING);
-                var strValue = currentToken.lexeme;
-                vmWriter.writePush(Segment.CONST, strValue.length());
-                vmWriter.writeCall("String.new", 1);
-                for (int i = 0; i < strValue.length(); i++) {
-                    vmWriter.writePush(Segment.CONST, strValue.charAt(i));
-                    vmWriter.writeCall("String.appendChar", 2);
-                }
+                var strValue = currentLexeme();
+                if (options.stringPool())
+                    vmWriter.writeCall(pooledString(strValue), 0);
+                else
+                    writeStringLiteral(strValue);
                 break;
             case FALSE:
             case NULL:
             case TRUE:
                 expectPeek(FALSE, NULL, TRUE);
                 vmWriter.writePush(Segment.CONST, 0);
-                if (currentToken.type == TRUE)
+                if (currentType() == TRUE)
                     vmWriter.writeArithmetic(Command.NOT);
+                constant = true;
+                value = currentType() == TRUE ? -1 : 0;
                 break;
             case THIS:
                 expectPeek(THIS);
@@ -148,11 +267,10 @@ public class Parser {
             case IDENT:
                 expectPeek(TokenType.IDENT);
 
-                Symbol sym = symbolTable.resolve(currentToken.lexeme);
-                
                 if (peekTokenIs(TokenType.LPAREN) || peekTokenIs(TokenType.DOT)) {
                     parseSubroutineCall();
                 } else { 
+                    Symbol sym = resolve(currentLexeme());
                     if (peekTokenIs(LBRACKET)) { // array
                         expectPeek(LBRACKET);
                         parseExpression();
@@ -173,23 +291,39 @@ public class Parser {
                 expectPeek(LPAREN);
                 parseExpression();
                 expectPeek(RPAREN);
+                constant = termConstant;
+                value = termValue;
                 break;
             case MINUS:
                 expectPeek(MINUS);
-                op = currentToken.type;
+                op = currentType();
                 parseTerm();
-                vmWriter.writeArithmetic(Command.NEG);
+                if (termConstant && options.optimize()) {
+                    constant = true;
+                    value = (short) -termValue;
+                    pushConstant(start, value);
+                } else {
+                    vmWriter.writeArithmetic(Command.NEG);
+                }
                 break;
             case NOT:
                 expectPeek(NOT);
-                op = currentToken.type;
+                op = currentType();
                 parseTerm();
-                vmWriter.writeArithmetic(Command.NOT);    
+                if (termConstant && options.optimize()) {
+                    constant = true;
+                    value = (short) ~termValue;
+                    pushConstant(start, value);
+                } else {
+                    vmWriter.writeArithmetic(Command.NOT);
+                }
                 break;
             default:
                 ;
         }
-        printNonTerminal("/term");
+        termConstant = constant;
+        termValue = value;
+        endNonTerminal("term");
     }
 
     private Segment kind2Segment(Kind kind) {
@@ -208,17 +342,152 @@ public class Parser {
         return op != "" && "+-*/<>=~&|".contains(op);
     }
 
+    static public boolean isOperator(TokenType type) {
+        switch (type) {
+            case PLUS: case MINUS: case ASTERISK: case SLASH:
+            case LT: case GT: case EQ: case NOT: case AND: case OR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
     // term (op term)*
     void parseExpression() {
-        printNonTerminal("expression");
+        startNonTerminal("expression");
+        int start = vmWriter.code().size();
         parseTerm();
-        while (isOperator(peekToken.lexeme)) {
-            var ope = peekToken.type;
-            expectPeek(peekToken.type);
+        boolean constant = termConstant;
+        int value = termValue;
+        while (isOperator(peekType())) {
+            var ope = peekType();
+            expectPeek(ope);
+            int termStart = vmWriter.code().size();
             parseTerm();
-            compileOperators(ope);
+            // Jack avalia da esquerda para a direita, entao so da para dobrar enquanto o prefixo e constante
+            if (constant && termConstant && options.optimize() && canFold(ope, value, termValue)) {
+                value = fold(ope, value, termValue);
+                pushConstant(start, value);
+            } else {
+                if (!(options.optimize() && reduceStrength(ope, start, termStart, constant, value)))
+                    compileOperators(ope);
+                constant = false;
+            }
+        }
+        termConstant = constant;
+        termValue = value;
+        endNonTerminal("expression");
+    }
+
+    private static boolean canFold(TokenType type, int a, int b) {
+        if (type == SLASH) // divisao por zero e -32768 / -1 ficam para o Math.divide
+            return b != 0 && !(a == Short.MIN_VALUE && b == -1);
+        return type != NOT;
+    }
+
+    // aritmetica de 16 bits em complemento de dois; comparacoes dao true (-1) ou false (0)
+    private static int fold(TokenType type, int a, int b) {
+        switch (type) {
+            case PLUS: return (short) (a + b);
+            case MINUS: return (short) (a - b);
+            case ASTERISK: return (short) (a * b);
+            case SLASH: return (short) (a / b);
+            case AND: return a & b;
+            case OR: return a | b;
+            case LT: return a < b ? -1 : 0;
+            case GT: return a > b ? -1 : 0;
+            case EQ: return a == b ? -1 : 0;
+            default: throw new IllegalArgumentException(type.toString());
+        }
+    }
+
+    // sequencias maiores que isso deixam o codigo grande demais; ficam com o Math.multiply
+    private static final int MAX_MULTIPLY_LENGTH = 40;
+
+    // x * c e x / c com c constante sem chamar o Math; devolve false se nao compensa
+    private boolean reduceStrength(TokenType type, int start, int termStart, boolean leftConstant, int leftValue) {
+        var code = vmWriter.code();
+        if (type == ASTERISK && termConstant) {
+            if (multiplyLength(termValue) > MAX_MULTIPLY_LENGTH)
+                return false;
+            code.truncate(termStart);
+            writeMultiply(termValue);
+            return true;
+        }
+        if (type == ASTERISK && leftConstant) {
+            // c * x: a constante nao tem efeitos colaterais, entao pode sair da frente de x
+            if (multiplyLength(leftValue) > MAX_MULTIPLY_LENGTH)
+                return false;
+            code.delete(start, termStart);
+            writeMultiply(leftValue);
+            return true;
+        }
+        // a VM nao tem deslocamento para a direita, entao so / 1 e / -1 saem sem o Math.divide
+        if (type == SLASH && termConstant && (termValue == 1 || termValue == -1)) {
+            code.truncate(termStart);
+            if (termValue == -1)
+                vmWriter.writeArithmetic(Command.NEG);
+            return true;
+        }
+        return false;
+    }
+
+    // multiplicar por c e por c + 2^16 da o mesmo resultado em 16 bits, entao c e tratado sem sinal;
+    // se o negativo tiver menos bits, multiplica por ele e nega
+    private static int multiplyLength(int c) {
+        return Math.min(doubleAndAddLength(c & 0xFFFF), doubleAndAddLength(-c & 0xFFFF) + 1);
+    }
+
+    private static int doubleAndAddLength(int u) {
+        if (u == 0)
+            return 2;
+        int bits = 32 - Integer.numberOfLeadingZeros(u);
+        int ones = Integer.bitCount(u);
+        return (ones > 1 ? 2 : 0) + (bits - 1) * 4 + (ones - 1) * 2;
+    }
+
+    // x ja esta na pilha; guarda x em temp 1 e usa temp 2 para duplicar o acumulador
+    private void writeMultiply(int c) {
+        int u = c & 0xFFFF;
+        boolean negate = doubleAndAddLength(-c & 0xFFFF) + 1 < doubleAndAddLength(u);
+        if (negate)
+            u = -c & 0xFFFF;
+        if (u == 0) {
+            vmWriter.writePop(Segment.TEMP, 1);
+            vmWriter.writePush(Segment.CONST, 0);
+            return;
+        }
+        boolean keepX = Integer.bitCount(u) > 1;
+        if (keepX) {
+            vmWriter.writePop(Segment.TEMP, 1);
+            vmWriter.writePush(Segment.TEMP, 1);
+        }
+        for (int bit = 30 - Integer.numberOfLeadingZeros(u); bit >= 0; bit--) {
+            vmWriter.writePop(Segment.TEMP, 2);
+            vmWriter.writePush(Segment.TEMP, 2);
+            vmWriter.writePush(Segment.TEMP, 2);
+            vmWriter.writeArithmetic(Command.ADD);
+            if ((u & (1 << bit)) != 0) {
+                vmWriter.writePush(Segment.TEMP, 1);
+                vmWriter.writeArithmetic(Command.ADD);
+            }
+        }
+        if (negate)
+            vmWriter.writeArithmetic(Command.NEG);
+    }
+
+    // troca o codigo gerado desde start pela constante; a VM so tem push de 0..32767
+    private void pushConstant(int start, int value) {
+        vmWriter.code().truncate(start);
+        if (value >= 0) {
+            vmWriter.writePush(Segment.CONST, value);
+        } else if (value == Short.MIN_VALUE) {
+            vmWriter.writePush(Segment.CONST, Short.MAX_VALUE);
+            vmWriter.writeArithmetic(Command.NOT);
+        } else {
+            vmWriter.writePush(Segment.CONST, -value);
+            vmWriter.writeArithmetic(Command.NEG);
         }
-        printNonTerminal("/expression");
     }
 
     public void compileOperators(TokenType type) {
@@ -255,11 +524,11 @@ public class Parser {
 
         var isArray = false;
 
-        printNonTerminal("letStatement");
+        startNonTerminal("letStatement");
         expectPeek(TokenType.LET);
         expectPeek(TokenType.IDENT);
 
-        var symbol = symbolTable.resolve(currentToken.lexeme);
+        var symbol = resolve(currentLexeme());
 
         if (peekTokenIs(LBRACKET)) { // array
             expectPeek(LBRACKET);
@@ -291,7 +560,7 @@ public class Parser {
         }
 
         expectPeek(TokenType.SEMICOLON);
-        printNonTerminal("/letStatement");
+        endNonTerminal("letStatement");
     }
 
     // subroutineCall -> subroutineName '(' expressionList ')' | (className|varName)
@@ -301,7 +570,7 @@ public class Parser {
 
         var nArgs = 0;
 
-        var ident = currentToken.lexeme;
+        var ident = currentLexeme();
         var symbol = symbolTable.resolve(ident); // classe ou objeto
         var functionName = ident + ".";
 
@@ -317,11 +586,11 @@ public class Parser {
             expectPeek(IDENT); // nome da função
 
             if (symbol != null) { // é um metodo
-                functionName = symbol.type() + "." + currentToken.lexeme;
+                functionName = symbol.type() + "." + currentLexeme();
                 vmWriter.writePush(kind2Segment(symbol.kind()), symbol.index());
                 nArgs = 1; // do proprio objeto
             } else {
-                functionName += currentToken.lexeme; // é uma função
+                functionName += currentLexeme(); // é uma função
             }
 
             expectPeek(LPAREN);
@@ -334,7 +603,7 @@ public class Parser {
     }
 
     int parseExpressionList() {
-        printNonTerminal("expressionList");
+        startNonTerminal("expressionList");
 
         var nArgs = 0;
 
@@ -351,25 +620,25 @@ public class Parser {
             nArgs++;
         }
 
-        printNonTerminal("/expressionList");
+        endNonTerminal("expressionList");
         return nArgs;
     }
 
     // 'do' subroutineCall ';'
     public void parseDo() {
-        printNonTerminal("doStatement");
+        startNonTerminal("doStatement");
         expectPeek(DO);
         expectPeek(IDENT);
         parseSubroutineCall();
         expectPeek(SEMICOLON);
         vmWriter.writePop(Segment.TEMP, 0);
-        printNonTerminal("/doStatement");
+        endNonTerminal("doStatement");
     }
 
 
         // classVarDec → ( 'static' | 'field' ) type varName ( ',' varName)* ';'
         void parseClassVarDec() {
-            printNonTerminal("classVarDec");
+            startNonTerminal("classVarDec");
             expectPeek(FIELD, STATIC);
     
             SymbolTable.Kind kind = Kind.STATIC;
@@ -378,26 +647,26 @@ public class Parser {
     
             // 'int' | 'char' | 'boolean' | className
             expectPeek(INT, CHAR, BOOLEAN, IDENT);
-            String type = currentToken.lexeme;
+            String type = currentLexeme();
     
             expectPeek(IDENT);
-            String name = currentToken.lexeme;
+            String name = currentLexeme();
     
-            symbolTable.define(name, type, kind);
+            define(name, type, kind);
             while (peekTokenIs(COMMA)) {
                 expectPeek(COMMA);
                 expectPeek(IDENT);
     
-                name = currentToken.lexeme;
-                symbolTable.define(name, type, kind);
+                name = currentLexeme();
+                define(name, type, kind);
             }
     
             expectPeek(SEMICOLON);
-            printNonTerminal("/classVarDec");
+            endNonTerminal("classVarDec");
         }
 
         void parseIf() {
-            printNonTerminal("ifStatement");
+            startNonTerminal("ifStatement");
 
             var labelTrue = "IF_TRUE" + ifLabelNum;
             var labelFalse = "IF_FALSE" + ifLabelNum;
@@ -432,25 +701,25 @@ public class Parser {
                 vmWriter.writeLabel(labelEnd);
             }
 
-            printNonTerminal("/ifStatement");
+            endNonTerminal("ifStatement");
         }
 
         void parseStatements() {
-            printNonTerminal("statements");
-            while (peekToken.type == WHILE ||
-                    peekToken.type == IF ||
-                    peekToken.type == LET ||
-                    peekToken.type == DO ||
-                    peekToken.type == RETURN) {
+            startNonTerminal("statements");
+            while (peekTokenIs(WHILE) ||
+                    peekTokenIs(IF) ||
+                    peekTokenIs(LET) ||
+                    peekTokenIs(DO) ||
+                    peekTokenIs(RETURN)) {
                 parseStatement();
             }
     
-            printNonTerminal("/statements");
+            endNonTerminal("statements");
         }
 
 
         void parseStatement() {
-            switch (peekToken.type) {
+            switch (peekType()) {
                 case LET:
                     parseLet();
                     break;
@@ -473,7 +742,7 @@ public class Parser {
 
             // 'while' '(' expression ')' '{' statements '}'
         void parseWhile() {
-            printNonTerminal("whileStatement");
+            startNonTerminal("whileStatement");
 
             var labelTrue = "WHILE_EXP" + whileLabelNum;
             var labelFalse = "WHILE_END" + whileLabelNum;
@@ -496,12 +765,12 @@ public class Parser {
             vmWriter.writeLabel(labelFalse); // Breaks out of while loop because ~(condition) is true
 
             expectPeek(RBRACE);
-            printNonTerminal("/whileStatement");
+            endNonTerminal("whileStatement");
         }
 
         // ReturnStatement -> 'return' expression? ';'
         void parseReturn() {
-            printNonTerminal("returnStatement");
+            startNonTerminal("returnStatement");
             expectPeek(RETURN);
             if (!peekTokenIs(SEMICOLON)) {
                 parseExpression();
@@ -511,12 +780,12 @@ public class Parser {
             expectPeek(SEMICOLON);
             vmWriter.writeReturn();
     
-            printNonTerminal("/returnStatement");
+            endNonTerminal("returnStatement");
         }
 
         void parseSubroutineBody(String functionName, TokenType subroutineType) {
 
-            printNonTerminal("subroutineBody");
+            startNonTerminal("subroutineBody");
             expectPeek(LBRACE);
             while (peekTokenIs(VAR)) {
                 parseVarDec();
@@ -538,11 +807,11 @@ public class Parser {
     
             parseStatements();
             expectPeek(RBRACE);
-            printNonTerminal("/subroutineBody");
+            endNonTerminal("subroutineBody");
         }
 
         void parseSubroutineDec() {
-            printNonTerminal("subroutineDec");
+            startNonTerminal("subroutineDec");
     
             ifLabelNum = 0;
             whileLabelNum = 0;
@@ -550,59 +819,59 @@ public class Parser {
             symbolTable.startSubroutine();
     
             expectPeek(CONSTRUCTOR, FUNCTION, METHOD);
-            var subroutineType = currentToken.type;
+            var subroutineType = currentType();
     
             if (subroutineType == METHOD) {
-                symbolTable.define("this", className, Kind.ARG);
+                define("this", className, Kind.ARG);
             }
     
             // 'int' | 'char' | 'boolean' | className
             expectPeek(VOID, INT, CHAR, BOOLEAN, IDENT);
             expectPeek(IDENT);
     
-            var functionName = className + "." + currentToken.lexeme;
+            var functionName = className + "." + currentLexeme();
     
             expectPeek(LPAREN);
             parseParameterList();
             expectPeek(RPAREN);
             parseSubroutineBody(functionName, subroutineType);
     
-            printNonTerminal("/subroutineDec");
+            endNonTerminal("subroutineDec");
         }
 
         void parseParameterList() {
-            printNonTerminal("parameterList");
+            startNonTerminal("parameterList");
     
             SymbolTable.Kind kind = Kind.ARG;
     
             if (!peekTokenIs(RPAREN)) // verifica se tem pelo menos uma expressao
             {
                 expectPeek(INT, CHAR, BOOLEAN, IDENT);
-                String type = currentToken.lexeme;
+                String type = currentLexeme();
     
                 expectPeek(IDENT);
-                String name = currentToken.lexeme;
-                symbolTable.define(name, type, kind);
+                String name = currentLexeme();
+                define(name, type, kind);
     
                 while (peekTokenIs(COMMA)) {
                     expectPeek(COMMA);
                     expectPeek(INT, CHAR, BOOLEAN, IDENT);
-                    type = currentToken.lexeme;
+                    type = currentLexeme();
     
                     expectPeek(IDENT);
-                    name = currentToken.lexeme;
+                    name = currentLexeme();
     
-                    symbolTable.define(name, type, kind);
+                    define(name, type, kind);
                 }
     
             }
     
-            printNonTerminal("/parameterList");
+            endNonTerminal("parameterList");
         }
     
         void parseSubroutineBody() {
     
-            printNonTerminal("subroutineBody");
+            startNonTerminal("subroutineBody");
             expectPeek(LBRACE);
             while (peekTokenIs(VAR)) {
                 parseVarDec();
@@ -610,39 +879,48 @@ public class Parser {
     
             parseStatements();
             expectPeek(RBRACE);
-            printNonTerminal("/subroutineBody");
+            endNonTerminal("subroutineBody");
         }
 
         // 'var' type varName ( ',' varName)* ';'
         void parseVarDec() {
-            printNonTerminal("varDec");
+            startNonTerminal("varDec");
             expectPeek(VAR);
     
             SymbolTable.Kind kind = Kind.VAR;
     
             // 'int' | 'char' | 'boolean' | className
             expectPeek(INT, CHAR, BOOLEAN, IDENT);
-            String type = currentToken.lexeme;
+            String type = currentLexeme();
     
             expectPeek(IDENT);
-            String name = currentToken.lexeme;
-            symbolTable.define(name, type, kind);
+            String name = currentLexeme();
+            define(name, type, kind);
     
             while (peekTokenIs(COMMA)) {
                 expectPeek(COMMA);
                 expectPeek(IDENT);
     
-                name = currentToken.lexeme;
-                symbolTable.define(name, type, kind);
+                name = currentLexeme();
+                define(name, type, kind);
     
             }
     
             expectPeek(SEMICOLON);
-            printNonTerminal("/varDec");
+            endNonTerminal("varDec");
         }
 
         public String VMOutput() {
             return vmWriter.vmOutput();
         }
 
+        // instrucoes geradas no IR compacto, para passes de otimizacao e backends
+        public VMCode vmCode() {
+            return vmWriter.code();
+        }
+
+        public void writeVMOutput(WritableByteChannel channel) throws IOException {
+            vmWriter.writeTo(channel);
+        }
+
 }
\ No newline at end of file
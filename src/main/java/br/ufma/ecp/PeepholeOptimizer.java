@@ -0,0 +1,243 @@
+package br.ufma.ecp;
+
+import static br.ufma.ecp.VMCode.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import br.ufma.ecp.VMWriter.Command;
+import br.ufma.ecp.VMWriter.Segment;
+
+/*
+ * Otimizador peephole sobre o IR da VM. Cada regra olha uma janela pequena a partir
+ * da instrucao atual e, se casar, escreve a substituicao e diz quantas instrucoes
+ * consumiu. As passadas se repetem ate nenhuma regra casar, porque uma reescrita
+ * costuma abrir espaco para outra (while (true) vira not;not;if-goto e depois nada).
+ *
+ * Os rotulos do Parser recomecam em cada subrotina, entao cada funcao e otimizada
+ * separadamente e as referencias aos rotulos sao contadas so dentro dela.
+ */
+public class PeepholeOptimizer {
+
+    private static final int NOT = encode(ARITHMETIC, Command.NOT.ordinal());
+
+    // o valor no topo da pilha ao fim do corpo e 0 ou -1 (resultado de comparacao, negado ou nao)
+    static boolean endsWithBoolean(int[] body, int size) {
+        int last = size - 1;
+        if (last >= 0 && body[last] == NOT)
+            last--;
+        if (last < 0 || opcode(body[last]) != ARITHMETIC)
+            return false;
+        Command command = VMCode.command(body[last]);
+        return command == Command.EQ || command == Command.GT || command == Command.LT;
+    }
+
+    // janela sobre a funcao atual
+    private final class Window {
+        int[] in;
+        int end;
+        int at;
+
+        int insn(int k) {
+            return in[at + k];
+        }
+
+        boolean has(int k) {
+            return at + k < end;
+        }
+
+        int op(int k) {
+            return has(k) ? opcode(in[at + k]) : -1;
+        }
+
+        boolean is(int k, int instruction) {
+            return has(k) && in[at + k] == instruction;
+        }
+
+        boolean isPush(int k, Segment segment, int index) {
+            return op(k) == PUSH && VMCode.segment(insn(k)) == segment && code.index(insn(k)) == index;
+        }
+
+        boolean isPop(int k, Segment segment, int index) {
+            return op(k) == POP && VMCode.segment(insn(k)) == segment && code.index(insn(k)) == index;
+        }
+
+        int label(int k) {
+            return code.nameId(insn(k));
+        }
+    }
+
+    private interface Rule {
+        // devolve quantas instrucoes da janela foram substituidas (0 se nao casou)
+        int rewrite(Window w);
+    }
+
+    private record NamedRule(String name, Rule rule) {
+    }
+
+    private final List<NamedRule> rules = new ArrayList<>();
+    private final int[] hits;
+
+    private VMCode code;
+    private int[] out;
+    private int outSize;
+    private int[] refs;
+
+    public PeepholeOptimizer() {
+        // not; not -> (nada)
+        rules.add(new NamedRule("double-not", w -> w.is(0, NOT) && w.is(1, NOT) ? 2 : 0));
+
+        // push constant 0; if-goto L -> (nada): false nunca desvia
+        rules.add(new NamedRule("false-branch", w -> {
+            if (!w.isPush(0, Segment.CONST, 0) || w.op(1) != IF_GOTO)
+                return 0;
+            refs[w.label(1)]--;
+            return 2;
+        }));
+
+        // push constant 0; not; if-goto L -> goto L: true sempre desvia
+        rules.add(new NamedRule("true-branch", w -> {
+            if (!w.isPush(0, Segment.CONST, 0) || !w.is(1, NOT) || w.op(2) != IF_GOTO)
+                return 0;
+            emit(encode(GOTO, w.label(2)));
+            return 3;
+        }));
+
+        // push X; pop temp 0; pop pointer 1; push temp 0; pop that 0 -> pop pointer 1; push X; pop that 0
+        // quando o valor guardado e um push simples, ele pode ser feito depois de apontar THAT
+        rules.add(new NamedRule("array-store", w -> {
+            if (w.op(0) != PUSH || !w.isPop(1, Segment.TEMP, 0) || !w.isPop(2, Segment.POINTER, 1)
+                    || !w.isPush(3, Segment.TEMP, 0) || !w.isPop(4, Segment.THAT, 0))
+                return 0;
+            Segment segment = VMCode.segment(w.insn(0));
+            if (segment == Segment.THAT || segment == Segment.POINTER)
+                return 0;
+            emit(w.insn(2));
+            emit(w.insn(0));
+            emit(w.insn(4));
+            return 5;
+        }));
+
+        // if-goto L1; goto L2; label L1 -> not; if-goto L2; label L1
+        // so vale se a condicao e 0 ou -1: para outros valores not x tambem e diferente de 0
+        rules.add(new NamedRule("branch-over-goto", w -> {
+            if (!endsWithBoolean(out, outSize) || w.op(0) != IF_GOTO || w.op(1) != GOTO || w.op(2) != LABEL || w.label(0) != w.label(2)
+                    || w.label(1) == w.label(2))
+                return 0;
+            refs[w.label(0)]--;
+            emit(NOT);
+            emit(encode(IF_GOTO, w.label(1)));
+            emit(w.insn(2));
+            return 3;
+        }));
+
+        // goto L; label L -> label L
+        rules.add(new NamedRule("jump-to-next", w -> {
+            if (w.op(0) != GOTO || w.op(1) != LABEL || w.label(0) != w.label(1))
+                return 0;
+            refs[w.label(0)]--;
+            emit(w.insn(1));
+            return 2;
+        }));
+
+        // depois de goto ou return so se chega a um label
+        rules.add(new NamedRule("unreachable", w -> {
+            int op = w.op(0);
+            if (op != GOTO && op != RETURN)
+                return 0;
+            int next = w.op(1);
+            if (next == -1 || next == LABEL)
+                return 0;
+            if (next == GOTO || next == IF_GOTO)
+                refs[w.label(1)]--;
+            emit(w.insn(0));
+            return 2;
+        }));
+
+        // label que ninguem referencia
+        rules.add(new NamedRule("dead-label", w -> w.op(0) == LABEL && refs[w.label(0)] == 0 ? 1 : 0));
+
+        hits = new int[rules.size()];
+    }
+
+    public void optimize(VMCode code) {
+        this.code = code;
+        int size = code.size();
+        int[] instructions = new int[size];
+        for (int i = 0; i < size; i++)
+            instructions[i] = code.instruction(i);
+
+        out = new int[size];
+        outSize = 0;
+        refs = new int[code.nameCount()];
+
+        int from = 0;
+        while (from < size) {
+            int to = from + 1;
+            while (to < size && opcode(instructions[to]) != FUNCTION)
+                to++;
+            optimizeFunction(instructions, from, to);
+            from = to;
+        }
+
+        code.truncate(0);
+        for (int i = 0; i < outSize; i++)
+            code.add(out[i]);
+    }
+
+    private void optimizeFunction(int[] instructions, int from, int to) {
+        var w = new Window();
+        w.in = Arrays.copyOfRange(instructions, from, to);
+        w.end = w.in.length;
+        int base = outSize;
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            countReferences(w.in, w.end);
+            outSize = base;
+            w.at = 0;
+            while (w.at < w.end) {
+                int consumed = 0;
+                for (int r = 0; r < rules.size() && consumed == 0; r++) {
+                    consumed = rules.get(r).rule().rewrite(w);
+                    if (consumed > 0)
+                        hits[r]++;
+                }
+                if (consumed == 0) {
+                    emit(w.insn(0));
+                    consumed = 1;
+                } else {
+                    changed = true;
+                }
+                w.at += consumed;
+            }
+            w.in = Arrays.copyOfRange(out, base, outSize);
+            w.end = w.in.length;
+        }
+    }
+
+    private void countReferences(int[] instructions, int end) {
+        Arrays.fill(refs, 0);
+        for (int i = 0; i < end; i++) {
+            int op = opcode(instructions[i]);
+            if (op == GOTO || op == IF_GOTO)
+                refs[code.nameId(instructions[i])]++;
+        }
+    }
+
+    private void emit(int instruction) {
+        out[outSize++] = instruction;
+    }
+
+    // quantas vezes cada regra foi aplicada, na ordem em que as regras sao tentadas
+    public Map<String, Integer> hits() {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        for (int r = 0; r < rules.size(); r++)
+            result.put(rules.get(r).name(), hits[r]);
+        return result;
+    }
+}
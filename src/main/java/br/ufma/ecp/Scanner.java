@@ -2,191 +2,271 @@ package br.ufma.ecp;
 
 import static br.ufma.ecp.token.TokenType.*;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.Map;
 
 import br.ufma.ecp.token.Token;
+import br.ufma.ecp.token.TokenBuffer;
 import br.ufma.ecp.token.TokenType;
 
 public class Scanner {
 
-    private byte[] input;
+    private final ByteBuffer input;
+    // atalho para buffers de heap: le o array direto em vez de passar por ByteBuffer.get
+    private final byte[] array;
+    private final int offset;
+    private final int length;
+    private final boolean swar;
+    private final String file;
+    private final Diagnostics diagnostics;
     private int current;
     private int start;
+    private int end;
 
-    private int line = 1;
+    private LineIndex lineIndex;
 
-    private static final Map<String, TokenType> keywords;
+    // classes de caracteres indexadas pelo byte
+    private static final byte ALPHA = 1;
+    private static final byte DIGIT = 2;
+    private static final byte SPACE = 4;
+
+    private static final byte[] charClass = new byte[256];
+    private static final TokenType[] symbols = new TokenType[256];
+
+    // hash perfeito sobre as 21 palavras-chave: (b0 * 26 + b1 * 22 + tamanho) & 31 nao tem colisoes
+    private static final byte[][] keywordBytes = new byte[32][];
+    private static final TokenType[] keywordTypes = new TokenType[32];
 
     static {
-        keywords = new HashMap<>();
-        keywords.put("while", TokenType.WHILE);
-        keywords.put("int", TokenType.INT);
-        keywords.put("class", TokenType.CLASS);
-        keywords.put("constructor", TokenType.CONSTRUCTOR);
-        keywords.put("function", TokenType.FUNCTION);
-        keywords.put("method", TokenType.METHOD);
-        keywords.put("field", TokenType.FIELD);
-        keywords.put("static", TokenType.STATIC);
-        keywords.put("var", TokenType.VAR);
-        keywords.put("char", TokenType.CHAR);
-        keywords.put("boolean", TokenType.BOOLEAN);
-        keywords.put("void", TokenType.VOID);
-        keywords.put("true", TokenType.TRUE);
-        keywords.put("false", TokenType.FALSE);
-        keywords.put("null", TokenType.NULL);
-        keywords.put("this", TokenType.THIS);
-        keywords.put("let", TokenType.LET);
-        keywords.put("do", TokenType.DO);
-        keywords.put("if", TokenType.IF);
-        keywords.put("else", TokenType.ELSE);
-        keywords.put("return", TokenType.RETURN);
+        for (int c = 'a'; c <= 'z'; c++)
+            charClass[c] = ALPHA;
+        for (int c = 'A'; c <= 'Z'; c++)
+            charClass[c] = ALPHA;
+        charClass['_'] = ALPHA;
+        for (int c = '0'; c <= '9'; c++)
+            charClass[c] = DIGIT;
+        charClass[' '] = SPACE;
+        charClass['\r'] = SPACE;
+        charClass['\t'] = SPACE;
+        charClass['\n'] = SPACE;
+
+        symbols['+'] = PLUS;
+        symbols['-'] = MINUS;
+        symbols['*'] = ASTERISK;
+        symbols['.'] = DOT;
+        symbols['&'] = AND;
+        symbols['|'] = OR;
+        symbols['~'] = NOT;
+        symbols['>'] = GT;
+        symbols['<'] = LT;
+        symbols['='] = EQ;
+        symbols['('] = LPAREN;
+        symbols[')'] = RPAREN;
+        symbols['{'] = LBRACE;
+        symbols['}'] = RBRACE;
+        symbols['['] = LBRACKET;
+        symbols[']'] = RBRACKET;
+        symbols[';'] = SEMICOLON;
+        symbols[','] = COMMA;
+
+        TokenType[] keywords = {
+                WHILE, INT, CLASS, CONSTRUCTOR, FUNCTION, METHOD, FIELD, STATIC, VAR, CHAR, BOOLEAN,
+                VOID, TRUE, FALSE, NULL, THIS, LET, DO, IF, ELSE, RETURN };
+        for (TokenType type : keywords) {
+            byte[] word = type.name().toLowerCase().getBytes(StandardCharsets.US_ASCII);
+            int h = keywordHash(word[0], word[1], word.length);
+            if (keywordTypes[h] != null)
+                throw new IllegalStateException("keyword hash collision: " + type);
+            keywordBytes[h] = word;
+            keywordTypes[h] = type;
+        }
     }
 
     public Scanner(byte[] input) {
-        this.input = input;
+        this(ByteBuffer.wrap(input));
+    }
+
+    // aceita buffers de heap, fatias somente-leitura e arquivos mapeados sem copiar os bytes;
+    // a entrada e a regiao entre position e limit
+    public Scanner(ByteBuffer input) {
+        this(input, "", new Diagnostics());
+    }
+
+    public Scanner(ByteBuffer input, String file, Diagnostics diagnostics) {
+        this(input, file, diagnostics, Swar.ENABLED);
+    }
+
+    Scanner(ByteBuffer input, boolean swar) {
+        this(input, "", new Diagnostics(), swar);
+    }
+
+    Scanner(ByteBuffer input, String file, Diagnostics diagnostics, boolean swar) {
+        this.input = Swar.littleEndian(input.slice());
+        this.swar = swar;
+        this.file = file;
+        this.diagnostics = diagnostics;
+        length = this.input.remaining();
+        array = this.input.hasArray() ? this.input.array() : null;
+        offset = this.input.hasArray() ? this.input.arrayOffset() : 0;
         current = 0;
         start = 0;
     }
 
     private void skipWhitespace() {
-        char ch = peek();
-        while (ch == ' ' || ch == '\r' || ch == '\t' || ch == '\n') {
+        int pos = current;
+        while (pos < length && is(byteAt(pos), SPACE))
+            pos++;
+        current = pos;
+    }
 
-            if (ch == '\n')
-                line++;
-            advance();
-            ch = peek();
+    // espacos e comentarios em laco: a pilha nao cresce com a quantidade de comentarios seguidos
+    private void skipTrivia() {
+        for (;;) {
+            skipWhitespace();
+            if (peek() != '/')
+                return;
+            if (peekNext() == '/') {
+                skipLineComments();
+            } else if (peekNext() == '*') {
+                skipBlockComments();
+            } else {
+                return;
+            }
         }
     }
 
     public Token nextToken() {
+        TokenType type = scanToken();
+        return new Token(type, TokenBuffer.lexeme(input, type, start, end - start), lineIndex().line(start));
+    }
+
+    // le todos os tokens ate o EOF (inclusive) para um buffer empacotado, sem criar Token nem String
+    public TokenBuffer tokenize() {
+        TokenBuffer tokens = new TokenBuffer(input, Math.max(16, length / 16));
+        while (scanInto(tokens) != EOF)
+            ;
+        return tokens;
+    }
+
+    TokenType scanInto(TokenBuffer tokens) {
+        TokenType type = scanToken();
+        tokens.add(type, start, end - start);
+        return type;
+    }
 
-        skipWhitespace();
+    // usados pelo ParallelScanner para lexar a partir do meio da entrada
+    void seek(int position) {
+        current = position;
+    }
+
+    int position() {
+        return current;
+    }
+
+    // so e montado quando alguem precisa de linhas: nextToken() ou um erro lexico
+    private LineIndex lineIndex() {
+        if (lineIndex == null)
+            lineIndex = LineIndex.of(input);
+        return lineIndex;
+    }
+
+    // reconhece o proximo token; o lexema fica em input[start, end)
+    private TokenType scanToken() {
+        TokenType type = lexToken();
+        if (type != STRING)
+            end = current;
+        return type;
+    }
+
+    private TokenType lexToken() {
+
+        skipTrivia();
 
         start = current;
         char ch = peek();
 
-        if (Character.isDigit(ch)) {
+        if (is(ch, DIGIT)) {
             return number();
         }
 
-        if (isAlpha(ch)) {
+        if (is(ch, ALPHA)) {
             return identifier();
         }
 
+        TokenType symbol = symbols[ch & 0xFF];
+        if (symbol != null) {
+            advance();
+            return symbol;
+        }
+
         switch (ch) {
             case '/':
-                if (peekNext() == '/') {
-                    skipLineComments();
-                    return nextToken();
-                } else if (peekNext() == '*') {
-                    skipBlockComments();
-                    return nextToken();
-                }
-
-                else {
-                    advance();
-                    return new Token(TokenType.SLASH, "/", line);
-                }
-
-            case '+':
-                advance();
-                return new Token(TokenType.PLUS, "+", line);
-            case '-':
-                advance();
-                return new Token(TokenType.MINUS, "-", line);
-            case '*':
-                advance();
-                return new Token(TokenType.ASTERISK, "*", line);
-            case '.':
                 advance();
-                return new Token(TokenType.DOT, ".", line);
-            case '&':
-                advance();
-                return new Token(TokenType.AND, "&", line);
-            case '|':
-                advance();
-                return new Token(TokenType.OR, "|", line);
-            case '~':
-                advance();
-                return new Token(TokenType.NOT, "~", line);
-
-            case '>':
-                advance();
-                return new Token(TokenType.GT, ">", line);
-            case '<':
-                advance();
-                return new Token(TokenType.LT, "<", line);
-            case '=':
-                advance();
-                return new Token(TokenType.EQ, "=", line);
+                return TokenType.SLASH;
 
-            case '(':
-                advance();
-                return new Token(TokenType.LPAREN, "(", line);
-            case ')':
-                advance();
-                return new Token(TokenType.RPAREN, ")", line);
-            case '{':
-                advance();
-                return new Token(TokenType.LBRACE, "{", line);
-            case '}':
-                advance();
-                return new Token(TokenType.RBRACE, "}", line);
-            case '[':
-                advance();
-                return new Token(TokenType.LBRACKET, "[", line);
-            case ']':
-                advance();
-                return new Token(TokenType.RBRACKET, "]", line);
-            case ';':
-                advance();
-                return new Token(TokenType.SEMICOLON, ";", line);
-            case ',':
-                advance();
-                return new Token(TokenType.COMMA, ",", line);
             case '"':
                 return string();
             case 0:
-                return new Token(EOF, "EOF", line);
+                return EOF;
             default:
                 advance();
-                return new Token(ILLEGAL, Character.toString(ch), line);
+                return ILLEGAL;
         }
     }
 
-    private Token identifier() {
-        while (isAlphaNumeric(peek()))
-            advance();
+    private TokenType identifier() {
+        current = skip(current + 1, ALPHA | DIGIT);
 
-        String id = new String(input, start, current - start, StandardCharsets.UTF_8);
-        TokenType type = keywords.get(id);
-        if (type == null)
-            type = IDENT;
-        return new Token(type, id, line);
+        return keyword(start, current - start);
     }
 
-    private Token number() {
-        while (Character.isDigit(peek())) {
-            advance();
-        }
+    // compara direto no intervalo de bytes, sem criar String
+    private TokenType keyword(int start, int length) {
+        if (length < 2 || length > 11)
+            return IDENT;
 
-        String num = new String(input, start, current - start, StandardCharsets.UTF_8);
-        return new Token(NUMBER, num, line);
+        int h = keywordHash((byte) byteAt(start), (byte) byteAt(start + 1), length);
+        byte[] word = keywordBytes[h];
+        if (word == null || word.length != length)
+            return IDENT;
+
+        for (int i = 0; i < length; i++)
+            if ((byte) byteAt(start + i) != word[i])
+                return IDENT;
+        return keywordTypes[h];
     }
 
-    private Token string() {
+    private static int keywordHash(byte first, byte second, int length) {
+        return (first * 26 + second * 22 + length) & 31;
+    }
+
+    private TokenType number() {
+        current = skip(current + 1, DIGIT);
+        return NUMBER;
+    }
+
+    // avanca enquanto os bytes pertencem as classes pedidas
+    private int skip(int pos, int mask) {
+        while (pos < length && is(byteAt(pos), mask))
+            pos++;
+        return pos;
+    }
+
+    private TokenType string() {
         advance();
         start = current;
-        while (peek() != '"' && peek() != 0) {
-            advance();
+        if (swar) {
+            current = Swar.indexOf(input, current, length, (byte) '"', (byte) 0);
+        } else {
+            while (peek() != '"' && peek() != 0) {
+                advance();
+            }
         }
-        String s = new String(input, start, current - start, StandardCharsets.UTF_8);
-        Token token = new Token(TokenType.STRING, s, line);
+        end = current;
+        if (peek() != '"')
+            error(start - 1, "unterminated string");
         advance();
-        return token;
+        return TokenType.STRING;
     }
 
     private void advance() {
@@ -196,49 +276,60 @@ public class Scanner {
         }
     }
 
-    private boolean isAlpha(char c) {
-        return (c >= 'a' && c <= 'z') ||
-                (c >= 'A' && c <= 'Z') ||
-                c == '_';
-    }
-
-    private boolean isAlphaNumeric(char c) {
-        return isAlpha(c) || Character.isDigit((c));
+    private static boolean is(char c, int mask) {
+        return (charClass[c & 0xFF] & mask) != 0;
     }
 
     private char peek() {
-        if (current < input.length)
-            return (char) input[current];
+        if (current < length)
+            return byteAt(current);
         return 0;
     }
 
     private char peekNext() {
         int next = current + 1;
-        if (next < input.length) {
-            return (char) input[next];
+        if (next < length) {
+            return byteAt(next);
         } else {
             return 0;
         }
     }
 
+    private char byteAt(int pos) {
+        return (char) (array != null ? array[offset + pos] : input.get(pos));
+    }
+
     private void skipLineComments() {
+        if (swar) {
+            current = Swar.indexOf(input, current, length, (byte) '\n', (byte) 0);
+            return;
+        }
         for (char ch = peek(); ch != '\n' && ch != 0; advance(), ch = peek())
-            if (ch == '\n')
-                line++;
+            ;
     }
 
     private void skipBlockComments() {
+        if (swar) {
+            int skipped = Swar.skipBlockComment(input, current + 2, length);
+            if (skipped < 0) { // eof, lexical error
+                error(current, "unterminated comment");
+                current = length;
+                return;
+            }
+            current = skipped;
+            return;
+        }
         boolean endComment = false;
+        int commentStart = current;
         advance();
         while (!endComment) {
             advance();
             char ch = peek();
 
-            if (ch == '\n')
-                line++;
-
             if (ch == 0) { // eof, lexical error
-                System.exit(1);
+                error(commentStart, "unterminated comment");
+                current = length;
+                return;
             }
 
             if (ch == '*') {
@@ -252,4 +343,8 @@ public class Scanner {
 
         }
     }
+
+    private void error(int offset, String message) {
+        diagnostics.error(file, lineIndex().line(offset), lineIndex().column(offset), message);
+    }
 }
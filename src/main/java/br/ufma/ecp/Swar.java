@@ -0,0 +1,69 @@
+package br.ufma.ecp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*
+ * Busca de bytes oito de cada vez (SWAR: SIMD within a register) para o Scanner
+ * pular comentarios e strings longos. O buffer precisa estar em LITTLE_ENDIAN
+ * para que o byte de menor indice fique nos bits menos significativos da palavra.
+ * Desligado com -Djack.swar=false, o Scanner volta ao laco byte a byte.
+ */
+final class Swar {
+
+    static final boolean ENABLED = !"false".equals(System.getProperty("jack.swar"));
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW7 = 0x7F7F7F7F7F7F7F7FL;
+
+    private Swar() {
+    }
+
+    static ByteBuffer littleEndian(ByteBuffer buffer) {
+        return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // bit alto ligado exatamente nos bytes da palavra iguais a b (sem falsos positivos)
+    static long matches(long word, byte b) {
+        long x = word ^ (ONES * (b & 0xFF));
+        return ~(((x & LOW7) + LOW7) | x | LOW7);
+    }
+
+    private static int firstByte(long mask) {
+        return Long.numberOfTrailingZeros(mask) >>> 3;
+    }
+
+    // primeira posicao em [from, to) com o byte a ou b; devolve to se nao houver
+    static int indexOf(ByteBuffer buffer, int from, int to, byte a, byte b) {
+        int pos = from;
+        for (; pos + Long.BYTES <= to; pos += Long.BYTES) {
+            long word = buffer.getLong(pos);
+            long mask = matches(word, a) | matches(word, b);
+            if (mask != 0)
+                return pos + firstByte(mask);
+        }
+        for (; pos < to; pos++) {
+            byte c = buffer.get(pos);
+            if (c == a || c == b)
+                return pos;
+        }
+        return to;
+    }
+
+    /*
+     * Pula o corpo de um comentario de bloco a partir de from. Devolve a posicao logo
+     * apos o fechamento, ou -1 se a entrada acabar (ou houver um NUL) antes dele.
+     */
+    static int skipBlockComment(ByteBuffer buffer, int from, int to) {
+        int pos = from;
+        while (pos < to) {
+            pos = indexOf(buffer, pos, to, (byte) '*', (byte) 0);
+            if (pos == to || buffer.get(pos) == 0)
+                return -1;
+            if (pos + 1 < to && buffer.get(pos + 1) == '/')
+                return pos + 2;
+            pos++;
+        }
+        return -1;
+    }
+}
@@ -59,6 +59,10 @@ public class SymbolTable {
 
     }
 
+    boolean isDefined(String name, Kind kind) {
+        return scope(kind).containsKey(name);
+    }
+
     public Symbol resolve (String name) {
         Symbol s = subroutineScope.get(name);
         if (s != null) return s;
@@ -0,0 +1,244 @@
+package br.ufma.ecp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import br.ufma.ecp.VMWriter.Command;
+import br.ufma.ecp.VMWriter.Segment;
+
+/*
+ * Representacao intermediaria das instrucoes da VM: um int por instrucao.
+ *
+ *   bits 28-31  opcode
+ *   push/pop    segmento (bits 25-27) | wide (bit 24) | indice (bits 0-23)
+ *   aritmetica  ordinal do Command
+ *   label/goto/if-goto   id do rotulo
+ *   call/function        wide (bit 27) | quantidade (bits 16-26) | id do nome (bits 0-15)
+ *
+ * Rotulos e nomes de funcao sao internados em ids. Operandos que nao cabem nos
+ * campos ficam na tabela "wide" e a instrucao guarda so a posicao deles la.
+ */
+public class VMCode {
+
+    public static final int PUSH = 0;
+    public static final int POP = 1;
+    public static final int ARITHMETIC = 2;
+    public static final int LABEL = 3;
+    public static final int GOTO = 4;
+    public static final int IF_GOTO = 5;
+    public static final int CALL = 6;
+    public static final int FUNCTION = 7;
+    public static final int RETURN = 8;
+
+    private static final Segment[] SEGMENTS = Segment.values();
+    private static final Command[] COMMANDS = Command.values();
+
+    private static final int PAYLOAD = (1 << 28) - 1;
+    private static final int PUSH_WIDE = 1 << 24;
+    private static final int INDEX = (1 << 24) - 1;
+    private static final int CALL_WIDE = 1 << 27;
+    private static final int COUNT_LIMIT = 1 << 11;
+    private static final int NAME_LIMIT = 1 << 16;
+
+    private int[] code = new int[256];
+    private int size;
+
+    private int[] wide = new int[16];
+    private int wideSize;
+
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> nameIds = new HashMap<>();
+
+    public int size() {
+        return size;
+    }
+
+    public int instruction(int i) {
+        return code[i];
+    }
+
+    public void set(int i, int instruction) {
+        code[i] = instruction;
+    }
+
+    // descarta as instrucoes a partir de newSize (os nomes internados continuam valendo)
+    public void truncate(int newSize) {
+        size = newSize;
+    }
+
+    // remove as instrucoes em [from, to), deslocando as seguintes
+    public void delete(int from, int to) {
+        System.arraycopy(code, to, code, from, size - to);
+        size -= to - from;
+    }
+
+    public int intern(String name) {
+        Integer id = nameIds.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            nameIds.put(name, id);
+        }
+        return id;
+    }
+
+    public String name(int id) {
+        return names.get(id);
+    }
+
+    public int nameCount() {
+        return names.size();
+    }
+
+    // ---------- montagem ----------
+
+    public void add(int instruction) {
+        if (size == code.length)
+            code = Arrays.copyOf(code, size * 2);
+        code[size++] = instruction;
+    }
+
+    public static int encode(int opcode, int payload) {
+        return opcode << 28 | payload;
+    }
+
+    void push(Segment segment, int index) {
+        add(encode(PUSH, memoryPayload(segment, index)));
+    }
+
+    void pop(Segment segment, int index) {
+        add(encode(POP, memoryPayload(segment, index)));
+    }
+
+    void arithmetic(Command command) {
+        add(encode(ARITHMETIC, command.ordinal()));
+    }
+
+    void label(String label) {
+        add(encode(LABEL, intern(label)));
+    }
+
+    void gotoLabel(String label) {
+        add(encode(GOTO, intern(label)));
+    }
+
+    void ifGoto(String label) {
+        add(encode(IF_GOTO, intern(label)));
+    }
+
+    void call(String name, int nArgs) {
+        add(encode(CALL, namedPayload(intern(name), nArgs)));
+    }
+
+    void function(String name, int nLocals) {
+        add(encode(FUNCTION, namedPayload(intern(name), nLocals)));
+    }
+
+    void returnCommand() {
+        add(encode(RETURN, 0));
+    }
+
+    int memoryPayload(Segment segment, int index) {
+        int payload = segment.ordinal() << 25;
+        if (index >= 0 && index <= INDEX)
+            return payload | index;
+        return payload | PUSH_WIDE | addWide(index, 0);
+    }
+
+    int namedPayload(int nameId, int count) {
+        if (count >= 0 && count < COUNT_LIMIT && nameId < NAME_LIMIT)
+            return count << 16 | nameId;
+        return CALL_WIDE | addWide(nameId, count);
+    }
+
+    private int addWide(int a, int b) {
+        if (wideSize + 2 > wide.length)
+            wide = Arrays.copyOf(wide, wide.length * 2);
+        wide[wideSize++] = a;
+        wide[wideSize++] = b;
+        return wideSize - 2;
+    }
+
+    // ---------- texto ----------
+
+    // le o texto de um arquivo .vm (comentarios // e linhas em branco sao ignorados)
+    public static VMCode parse(CharSequence text) {
+        var code = new VMCode();
+        int lineNumber = 0;
+        for (String line : text.toString().split("\n")) {
+            lineNumber++;
+            int comment = line.indexOf("//");
+            if (comment >= 0)
+                line = line.substring(0, comment);
+            line = line.trim();
+            if (line.isEmpty())
+                continue;
+            String[] parts = line.split("\\s+");
+            try {
+                switch (parts[0]) {
+                    case "push" -> code.push(segment(parts[1]), Integer.parseInt(parts[2]));
+                    case "pop" -> code.pop(segment(parts[1]), Integer.parseInt(parts[2]));
+                    case "label" -> code.label(parts[1]);
+                    case "goto" -> code.gotoLabel(parts[1]);
+                    case "if-goto" -> code.ifGoto(parts[1]);
+                    case "call" -> code.call(parts[1], Integer.parseInt(parts[2]));
+                    case "function" -> code.function(parts[1], Integer.parseInt(parts[2]));
+                    case "return" -> code.returnCommand();
+                    default -> code.arithmetic(Command.valueOf(parts[0].toUpperCase()));
+                }
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("line " + lineNumber + ": invalid VM command: " + line);
+            }
+        }
+        return code;
+    }
+
+    private static Segment segment(String name) {
+        for (Segment segment : SEGMENTS)
+            if (segment.value.equals(name))
+                return segment;
+        throw new IllegalArgumentException(name);
+    }
+
+    // ---------- leitura ----------
+
+    public static int opcode(int instruction) {
+        return instruction >>> 28;
+    }
+
+    static Segment segment(int instruction) {
+        return SEGMENTS[(instruction >>> 25) & 7];
+    }
+
+    // indice de push/pop
+    public int index(int instruction) {
+        if ((instruction & PUSH_WIDE) != 0)
+            return wide[instruction & INDEX];
+        return instruction & INDEX;
+    }
+
+    static Command command(int instruction) {
+        return COMMANDS[instruction & PAYLOAD];
+    }
+
+    // id do rotulo (label/goto/if-goto) ou do nome da funcao (call/function)
+    public int nameId(int instruction) {
+        int op = opcode(instruction);
+        if (op == CALL || op == FUNCTION) {
+            if ((instruction & CALL_WIDE) != 0)
+                return wide[instruction & (CALL_WIDE - 1)];
+            return instruction & (NAME_LIMIT - 1);
+        }
+        return instruction & PAYLOAD;
+    }
+
+    // nArgs de call ou nLocals de function
+    public int count(int instruction) {
+        if ((instruction & CALL_WIDE) != 0)
+            return wide[(instruction & (CALL_WIDE - 1)) + 1];
+        return (instruction >>> 16) & (COUNT_LIMIT - 1);
+    }
+}
@@ -0,0 +1,424 @@
+package br.ufma.ecp;
+
+import static br.ufma.ecp.VMCode.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import br.ufma.ecp.VMWriter.Command;
+import br.ufma.ecp.VMWriter.Segment;
+
+/*
+ * Interpretador da VM, sem interface, para rodar e medir o codigo gerado.
+ *
+ * Os arquivos carregados sao ligados num programa so: labels somem (viram o endereco da
+ * instrucao seguinte), statics e temp viram enderecos fixos e cada call ja aponta para a
+ * funcao ou para o SO em Java (JackOS), que so e usado para as funcoes que nenhum arquivo
+ * define. A RAM segue o modelo do Hack (SP, LCL, ARG, THIS e THAT em 0-4, pilha a partir
+ * de 256, heap a partir de 2048) e o quadro de cada chamada e montado na pilha como na
+ * VM do livro; so o endereco de retorno fica numa pilha em Java.
+ *
+ * Conta as instrucoes executadas por funcao (labels nao contam) e para quando o
+ * orcamento de instrucoes acaba.
+ */
+public class VMInterpreter {
+
+    private static final int SP = 0;
+    private static final int LCL = 1;
+    private static final int ARG = 2;
+    private static final int THIS = 3;
+    private static final int THAT = 4;
+    private static final int STACK_BASE = 256;
+    private static final int STATIC_BASE = 16;
+
+    private static final Command[] COMMANDS = Command.values();
+
+    // instrucoes ligadas
+    private static final int PUSH_CONST = 0;
+    private static final int PUSH_DIRECT = 1;
+    private static final int PUSH_BASED = 2;
+    private static final int POP_DIRECT = 3;
+    private static final int POP_BASED = 4;
+    private static final int OP = 5;
+    private static final int JUMP = 6;
+    private static final int JUMP_IF = 7;
+    private static final int CALL_FUNCTION = 8;
+    private static final int CALL_NATIVE = 9;
+    private static final int CALL_UNDEFINED = 10;
+    private static final int ENTER = 11;
+    private static final int LEAVE = 12;
+
+    private final int[] ram = new int[32768];
+    private final JackOS os = new JackOS(ram);
+    private final Map<String, VMCode> units = new LinkedHashMap<>();
+    private long budget = Long.MAX_VALUE;
+
+    private int[] ops;
+    private int[] as;
+    private int[] bs;
+    private final List<String> functions = new ArrayList<>();
+    private final Map<String, Integer> functionIds = new HashMap<>();
+    private int[] entries;
+    private final List<String> undefined = new ArrayList<>();
+
+    private long instructions;
+    private long[] counts;
+    private final long[] nativeCalls = new long[JackOS.count()];
+    private int returnValue;
+
+    // fileName da nome aos statics, como no tradutor do livro
+    public VMInterpreter load(String fileName, VMCode code) {
+        units.put(fileName, code);
+        ops = null;
+        return this;
+    }
+
+    // todos os .vm de um diretorio, em ordem de nome
+    public VMInterpreter load(File directory) throws IOException {
+        var files = directory.listFiles((dir, name) -> name.endsWith(".vm"));
+        if (files == null)
+            throw new IOException("not a directory: " + directory);
+        Arrays.sort(files);
+        for (File file : files) {
+            var name = file.getName();
+            load(name.substring(0, name.length() - 3), VMCode.parse(Files.readString(file.toPath())));
+        }
+        return this;
+    }
+
+    public VMInterpreter withBudget(long budget) {
+        this.budget = budget;
+        return this;
+    }
+
+    public VMInterpreter withInput(String input) {
+        os.withInput(input);
+        return this;
+    }
+
+    // ---------- ligacao ----------
+
+    private void link() {
+        functions.clear();
+        functionIds.clear();
+        undefined.clear();
+        int total = 0;
+        for (VMCode code : units.values())
+            total += code.size();
+        ops = new int[total];
+        as = new int[total];
+        bs = new int[total];
+
+        // primeira passada: funcoes e labels
+        int pc = 0;
+        Map<String, Integer> labels = new HashMap<>();
+        List<Integer> functionPcs = new ArrayList<>();
+        for (VMCode code : units.values()) {
+            String function = "";
+            for (int i = 0; i < code.size(); i++) {
+                int insn = code.instruction(i);
+                if (opcode(insn) == LABEL) {
+                    labels.put(function + "$" + code.name(code.nameId(insn)), pc);
+                    continue;
+                }
+                if (opcode(insn) == FUNCTION) {
+                    function = code.name(code.nameId(insn));
+                    if (functionIds.containsKey(function))
+                        throw new IllegalStateException("function defined twice: " + function);
+                    functionIds.put(function, functions.size());
+                    functions.add(function);
+                    functionPcs.add(pc);
+                }
+                pc++;
+            }
+        }
+        int size = pc;
+        entries = functionPcs.stream().mapToInt(Integer::intValue).toArray();
+        counts = new long[functions.size()];
+
+        // segunda passada: operandos resolvidos
+        pc = 0;
+        int staticBase = STATIC_BASE;
+        for (var unit : units.entrySet()) {
+            VMCode code = unit.getValue();
+            String function = "";
+            int statics = 0;
+            for (int i = 0; i < code.size(); i++) {
+                int insn = code.instruction(i);
+                int op = opcode(insn);
+                switch (op) {
+                    case LABEL -> {
+                        continue;
+                    }
+                    case PUSH, POP -> {
+                        Segment segment = VMCode.segment(insn);
+                        int index = code.index(insn);
+                        switch (segment) {
+                            case CONST -> {
+                                if (op == POP)
+                                    throw new IllegalStateException("pop constant in " + function);
+                                ops[pc] = PUSH_CONST;
+                                bs[pc] = (short) index;
+                            }
+                            case LOCAL, ARG, THIS, THAT -> {
+                                ops[pc] = op == PUSH ? PUSH_BASED : POP_BASED;
+                                as[pc] = switch (segment) {
+                                    case LOCAL -> LCL;
+                                    case ARG -> ARG;
+                                    case THIS -> THIS;
+                                    default -> THAT;
+                                };
+                                bs[pc] = index;
+                            }
+                            default -> {
+                                ops[pc] = op == PUSH ? PUSH_DIRECT : POP_DIRECT;
+                                bs[pc] = switch (segment) {
+                                    case POINTER -> THIS + index;
+                                    case TEMP -> 5 + index;
+                                    default -> {
+                                        statics = Math.max(statics, index + 1);
+                                        yield staticBase + index;
+                                    }
+                                };
+                            }
+                        }
+                    }
+                    case ARITHMETIC -> {
+                        ops[pc] = OP;
+                        as[pc] = VMCode.command(insn).ordinal();
+                    }
+                    case GOTO, IF_GOTO -> {
+                        String label = function + "$" + code.name(code.nameId(insn));
+                        Integer target = labels.get(label);
+                        if (target == null)
+                            throw new IllegalStateException("undefined label " + label);
+                        ops[pc] = op == GOTO ? JUMP : JUMP_IF;
+                        bs[pc] = target;
+                    }
+                    case CALL -> {
+                        String name = code.name(code.nameId(insn));
+                        int nArgs = code.count(insn);
+                        Integer id = functionIds.get(name);
+                        int nativeId = JackOS.id(name);
+                        if (id != null) {
+                            ops[pc] = CALL_FUNCTION;
+                            as[pc] = id;
+                        } else if (nativeId >= 0) {
+                            if (JackOS.arity(nativeId) != nArgs)
+                                throw new IllegalStateException(name + " takes " + JackOS.arity(nativeId) + " arguments");
+                            ops[pc] = CALL_NATIVE;
+                            as[pc] = nativeId;
+                        } else {
+                            // so e erro se for executado
+                            ops[pc] = CALL_UNDEFINED;
+                            as[pc] = undefined.size();
+                            undefined.add(name);
+                        }
+                        bs[pc] = nArgs;
+                    }
+                    case FUNCTION -> {
+                        function = code.name(code.nameId(insn));
+                        ops[pc] = ENTER;
+                        as[pc] = functionIds.get(function);
+                        bs[pc] = code.count(insn);
+                    }
+                    default -> ops[pc] = LEAVE;
+                }
+                pc++;
+            }
+            staticBase += statics;
+            if (staticBase > STACK_BASE)
+                throw new IllegalStateException("too many static variables");
+        }
+        assert pc == size;
+    }
+
+    // ---------- execucao ----------
+
+    // chama entry sem argumentos; devolve false se o orcamento acabou antes do fim
+    public boolean run(String entry) {
+        if (ops == null)
+            link();
+        Integer entryId = functionIds.get(entry);
+        if (entryId == null)
+            throw new IllegalStateException("undefined function " + entry);
+
+        final int[] ram = this.ram;
+        final int[] ops = this.ops;
+        final int[] as = this.as;
+        final int[] bs = this.bs;
+        final long[] counts = this.counts;
+        long executed = instructions;
+
+        int[] returnPcs = new int[64];
+        int[] returnFunctions = new int[64];
+        int depth = 0;
+
+        ram[SP] = STACK_BASE + 5;
+        ram[ARG] = STACK_BASE;
+        ram[LCL] = STACK_BASE + 5;
+        int pc = entries[entryId];
+        int function = entryId;
+        try {
+            while (true) {
+                if (executed >= budget)
+                    return false;
+                executed++;
+                counts[function]++;
+                int b = bs[pc];
+                switch (ops[pc]) {
+                    case PUSH_CONST -> ram[ram[SP]++] = b;
+                    case PUSH_DIRECT -> ram[ram[SP]++] = ram[b];
+                    case PUSH_BASED -> ram[ram[SP]++] = ram[(ram[as[pc]] + b) & 0x7FFF];
+                    case POP_DIRECT -> ram[b] = ram[--ram[SP]];
+                    case POP_BASED -> ram[(ram[as[pc]] + b) & 0x7FFF] = ram[--ram[SP]];
+                    case OP -> arithmetic(as[pc]);
+                    case JUMP -> {
+                        pc = b;
+                        continue;
+                    }
+                    case JUMP_IF -> {
+                        if (ram[--ram[SP]] != 0) {
+                            pc = b;
+                            continue;
+                        }
+                    }
+                    case CALL_FUNCTION -> {
+                        if (depth == returnPcs.length) {
+                            returnPcs = Arrays.copyOf(returnPcs, depth * 2);
+                            returnFunctions = Arrays.copyOf(returnFunctions, depth * 2);
+                        }
+                        returnPcs[depth] = pc + 1;
+                        returnFunctions[depth++] = function;
+                        int sp = ram[SP];
+                        if (sp + 5 >= JackOS.HEAP_BASE)
+                            throw new IllegalStateException("stack overflow in " + functions.get(function));
+                        ram[sp] = (short) (pc + 1);
+                        ram[sp + 1] = ram[LCL];
+                        ram[sp + 2] = ram[ARG];
+                        ram[sp + 3] = ram[THIS];
+                        ram[sp + 4] = ram[THAT];
+                        ram[ARG] = sp - b;
+                        ram[SP] = sp + 5;
+                        ram[LCL] = sp + 5;
+                        function = as[pc];
+                        pc = entries[function];
+                        continue;
+                    }
+                    case CALL_NATIVE -> {
+                        int args = ram[SP] - b;
+                        int value = os.invoke(as[pc], args);
+                        nativeCalls[as[pc]]++;
+                        ram[args] = value;
+                        ram[SP] = args + 1;
+                        if (os.halted())
+                            return true;
+                    }
+                    case CALL_UNDEFINED -> throw new IllegalStateException("undefined function " + undefined.get(as[pc]));
+                    case ENTER -> {
+                        int sp = ram[SP];
+                        if (sp + b >= JackOS.HEAP_BASE)
+                            throw new IllegalStateException("stack overflow in " + functions.get(function));
+                        for (int i = 0; i < b; i++)
+                            ram[sp + i] = 0;
+                        ram[SP] = sp + b;
+                    }
+                    default -> {
+                        int frame = ram[LCL];
+                        int value = ram[ram[SP] - 1];
+                        int arg = ram[ARG];
+                        ram[arg] = value;
+                        ram[SP] = arg + 1;
+                        ram[THAT] = ram[frame - 1];
+                        ram[THIS] = ram[frame - 2];
+                        ram[ARG] = ram[frame - 3];
+                        ram[LCL] = ram[frame - 4];
+                        if (depth == 0) {
+                            returnValue = value;
+                            return true;
+                        }
+                        pc = returnPcs[--depth];
+                        function = returnFunctions[depth];
+                        continue;
+                    }
+                }
+                pc++;
+            }
+        } finally {
+            instructions = executed;
+        }
+    }
+
+    private void arithmetic(int command) {
+        int sp = ram[SP];
+        int y = ram[sp - 1];
+        if (command == Command.NEG.ordinal()) {
+            ram[sp - 1] = (short) -y;
+            return;
+        }
+        if (command == Command.NOT.ordinal()) {
+            ram[sp - 1] = (short) ~y;
+            return;
+        }
+        int x = ram[sp - 2];
+        int result = switch (COMMANDS[command]) {
+            case ADD -> (short) (x + y);
+            case SUB -> (short) (x - y);
+            case EQ -> x == y ? -1 : 0;
+            case GT -> x > y ? -1 : 0;
+            case LT -> x < y ? -1 : 0;
+            case AND -> x & y;
+            default -> x | y;
+        };
+        ram[sp - 2] = result;
+        ram[SP] = sp - 1;
+    }
+
+    // ---------- resultados ----------
+
+    public int returnValue() {
+        return returnValue;
+    }
+
+    public long instructions() {
+        return instructions;
+    }
+
+    public String output() {
+        return os.output();
+    }
+
+    int[] ram() {
+        return ram;
+    }
+
+    // instrucoes executadas por funcao, da que mais executou para a que menos executou
+    public Map<String, Long> counts() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        Integer[] order = new Integer[functions.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> -counts[i]));
+        for (int i : order)
+            if (counts[i] > 0)
+                result.put(functions.get(i), counts[i]);
+        return result;
+    }
+
+    // chamadas as funcoes do SO em Java
+    public Map<String, Long> nativeCalls() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < nativeCalls.length; i++)
+            if (nativeCalls[i] > 0)
+                result.put(JackOS.name(i), nativeCalls[i]);
+        return result;
+    }
+}
@@ -1,7 +1,52 @@
 package br.ufma.ecp;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+ * Registra as instrucoes no IR compacto (VMCode). O texto da VM e so um serializador
+ * sobre esse IR: emite direto em um byte[], com comandos e segmentos ja codificados e
+ * os inteiros escritos com uma tabela de digitos, sem String.format.
+ */
 public class VMWriter {
-    private StringBuilder vmOutput = new StringBuilder();
+
+    private static final byte[] DIGIT_PAIRS = new byte[200];
+
+    static {
+        for (int i = 0; i < 100; i++) {
+            DIGIT_PAIRS[i * 2] = (byte) ('0' + i / 10);
+            DIGIT_PAIRS[i * 2 + 1] = (byte) ('0' + i % 10);
+        }
+    }
+
+    private static final byte[] LABEL = ascii("label ");
+    private static final byte[] GOTO = ascii("goto ");
+    private static final byte[] IF_GOTO = ascii("if-goto ");
+    private static final byte[] CALL = ascii("call ");
+    private static final byte[] FUNCTION = ascii("function ");
+    private static final byte[] RETURN = ascii("return\n");
+
+    private final VMCode code;
+
+    // buffer do serializador de texto
+    private byte[] vmOutput;
+    private int size;
+
+    public VMWriter() {
+        this(new VMCode());
+    }
+
+    public VMWriter(VMCode code) {
+        this.code = code;
+    }
+
+    public VMCode code() {
+        return code;
+    }
 
     enum Segment {
         CONST("constant"),
@@ -15,9 +60,13 @@ public class VMWriter {
 
         private Segment(String value) {
             this.value = value;
+            this.push = ascii("push " + value + " ");
+            this.pop = ascii("pop " + value + " ");
         }
 
         public String value;
+        final byte[] push;
+        final byte[] pop;
     };
 
     enum Command {
@@ -29,48 +78,155 @@ public class VMWriter {
         LT,
         AND,
         OR,
-        NOT
+        NOT;
+
+        final byte[] text = ascii(name().toLowerCase() + "\n");
     };
 
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
     public String vmOutput() {
-        return vmOutput.toString();
+        serialize();
+        return new String(vmOutput, 0, size, StandardCharsets.US_ASCII);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        serialize();
+        out.write(vmOutput, 0, size);
+    }
+
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        serialize();
+        ByteBuffer buffer = ByteBuffer.wrap(vmOutput, 0, size);
+        while (buffer.hasRemaining())
+            channel.write(buffer);
     }
 
     void writePush(Segment segment, int index) {
-        vmOutput.append(String.format("push %s %d\n", segment.value, index));
+        code.push(segment, index);
     }
 
     void writePop(Segment segment, int index) {
-
-        vmOutput.append(String.format("pop %s %d\n", segment.value, index));
+        code.pop(segment, index);
     }
 
     void writeArithmetic(Command command) {
-        vmOutput.append(String.format("%s\n", command.name().toLowerCase()));
+        code.arithmetic(command);
     }
 
     void writeLabel(String label) {
-        vmOutput.append(String.format("label %s\n", label));
+        code.label(label);
     }
 
     void writeGoto(String label) {
-        vmOutput.append(String.format("goto %s\n", label));
+        code.gotoLabel(label);
     }
 
     void writeIf(String label) {
-        vmOutput.append(String.format("if-goto %s\n", label));
+        code.ifGoto(label);
     }
 
     void writeCall(String name, int nArgs) {
-        vmOutput.append(String.format("call %s %d\n", name, nArgs));
+        code.call(name, nArgs);
     }
 
     void writeFunction(String name, int nLocals) {
-        vmOutput.append(String.format("function %s %d\n", name, nLocals));
+        code.function(name, nLocals);
     }
 
     void writeReturn() {
-        vmOutput.append(String.format("return\n"));
+        code.returnCommand();
+    }
+
+    // ---------- serializador de texto ----------
+
+    private void serialize() {
+        if (vmOutput == null)
+            vmOutput = new byte[Math.max(4096, code.size() * 16)];
+        size = 0;
+        for (int i = 0; i < code.size(); i++) {
+            int insn = code.instruction(i);
+            switch (VMCode.opcode(insn)) {
+                case VMCode.PUSH -> {
+                    append(VMCode.segment(insn).push);
+                    appendInt(code.index(insn));
+                    appendByte('\n');
+                }
+                case VMCode.POP -> {
+                    append(VMCode.segment(insn).pop);
+                    appendInt(code.index(insn));
+                    appendByte('\n');
+                }
+                case VMCode.ARITHMETIC -> append(VMCode.command(insn).text);
+                case VMCode.LABEL -> appendLine(LABEL, code.name(code.nameId(insn)));
+                case VMCode.GOTO -> appendLine(GOTO, code.name(code.nameId(insn)));
+                case VMCode.IF_GOTO -> appendLine(IF_GOTO, code.name(code.nameId(insn)));
+                case VMCode.CALL, VMCode.FUNCTION -> {
+                    append(VMCode.opcode(insn) == VMCode.CALL ? CALL : FUNCTION);
+                    appendName(code.name(code.nameId(insn)));
+                    appendByte(' ');
+                    appendInt(code.count(insn));
+                    appendByte('\n');
+                }
+                case VMCode.RETURN -> append(RETURN);
+                default -> throw new IllegalStateException("invalid opcode " + VMCode.opcode(insn));
+            }
+        }
+    }
+
+    private void appendLine(byte[] command, String name) {
+        append(command);
+        appendName(name);
+        appendByte('\n');
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > vmOutput.length)
+            vmOutput = Arrays.copyOf(vmOutput, Math.max(vmOutput.length * 2, size + extra));
+    }
+
+    private void append(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, vmOutput, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void appendByte(char c) {
+        ensure(1);
+        vmOutput[size++] = (byte) c;
+    }
+
+    // nomes de funcoes e rotulos sao identificadores ASCII
+    private void appendName(String name) {
+        int length = name.length();
+        ensure(length);
+        for (int i = 0; i < length; i++)
+            vmOutput[size + i] = (byte) name.charAt(i);
+        size += length;
+    }
+
+    private void appendInt(int value) {
+        long v = value;
+        ensure(11);
+        if (v < 0) {
+            vmOutput[size++] = '-';
+            v = -v;
+        }
+        int digits = 1;
+        for (long p = 10; p <= v; p *= 10)
+            digits++;
+        int pos = size + digits;
+        while (v >= 10) {
+            int pair = (int) (v % 100) * 2;
+            v /= 100;
+            vmOutput[--pos] = DIGIT_PAIRS[pair + 1];
+            vmOutput[--pos] = DIGIT_PAIRS[pair];
+        }
+        if (pos > size)
+            vmOutput[--pos] = (byte) ('0' + v);
+        size += digits;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,28 @@
+package br.ufma.ecp;
+
+import br.ufma.ecp.token.TokenBuffer;
+
+// monta a arvore de analise no formato XML do nand2tetris
+public class XMLBuilder implements ParseListener {
+
+    private final StringBuilder xmlOutput = new StringBuilder();
+
+    @Override
+    public void startNonTerminal(String name) {
+        xmlOutput.append('<').append(name).append(">\r\n");
+    }
+
+    @Override
+    public void endNonTerminal(String name) {
+        xmlOutput.append("</").append(name).append(">\r\n");
+    }
+
+    @Override
+    public void terminal(TokenBuffer tokens, int index) {
+        xmlOutput.append(tokens.token(index).toString()).append("\r\n");
+    }
+
+    public String output() {
+        return xmlOutput.toString();
+    }
+}
@@ -0,0 +1,146 @@
+package br.ufma.ecp.token;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import br.ufma.ecp.LineIndex;
+
+/*
+ * Fluxo de tokens empacotado em um unico int[] (tipo, inicio, tamanho por token).
+ * Os lexemas nao sao materializados: sao lidos dos bytes de entrada somente quando pedidos.
+ * Linha e coluna saem do LineIndex, montado na primeira vez que alguem pede uma linha.
+ */
+public class TokenBuffer {
+
+    private static final TokenType[] TYPES = TokenType.values();
+    private static final String[] FIXED_LEXEMES = new String[TYPES.length];
+
+    private static final int STRIDE = 3;
+    private static final int TYPE = 0;
+    private static final int START = 1;
+    private static final int LENGTH = 2;
+
+    static {
+        String symbols = "{}()[].,;+-*/&|<>=~";
+        TokenType[] symbolTypes = {
+                TokenType.LBRACE, TokenType.RBRACE, TokenType.LPAREN, TokenType.RPAREN,
+                TokenType.LBRACKET, TokenType.RBRACKET, TokenType.DOT, TokenType.COMMA,
+                TokenType.SEMICOLON, TokenType.PLUS, TokenType.MINUS, TokenType.ASTERISK,
+                TokenType.SLASH, TokenType.AND, TokenType.OR, TokenType.LT, TokenType.GT,
+                TokenType.EQ, TokenType.NOT };
+        for (int i = 0; i < symbolTypes.length; i++)
+            FIXED_LEXEMES[symbolTypes[i].ordinal()] = symbols.substring(i, i + 1);
+
+        for (TokenType type : TYPES)
+            if (type.ordinal() >= TokenType.WHILE.ordinal() && type.ordinal() <= TokenType.RETURN.ordinal())
+                FIXED_LEXEMES[type.ordinal()] = type.name().toLowerCase();
+
+        FIXED_LEXEMES[TokenType.EOF.ordinal()] = "EOF";
+    }
+
+    private final ByteBuffer input;
+    private int[] data;
+    private int size;
+    private LineIndex lineIndex;
+
+    public TokenBuffer(ByteBuffer input) {
+        this(input, 256);
+    }
+
+    public TokenBuffer(ByteBuffer input, int initialCapacity) {
+        this.input = input;
+        this.data = new int[Math.max(1, initialCapacity) * STRIDE];
+    }
+
+    public void add(TokenType type, int start, int length) {
+        int pos = size * STRIDE;
+        if (pos == data.length)
+            data = Arrays.copyOf(data, data.length * 2);
+        data[pos + TYPE] = type.ordinal();
+        data[pos + START] = start;
+        data[pos + LENGTH] = length;
+        size++;
+    }
+
+    // copia os tokens [from, other.size()) de outro buffer sobre a mesma entrada
+    public void addAll(TokenBuffer other, int from) {
+        int count = other.size - from;
+        int needed = (size + count) * STRIDE;
+        if (needed > data.length)
+            data = Arrays.copyOf(data, Math.max(needed, data.length * 2));
+        System.arraycopy(other.data, from * STRIDE, data, size * STRIDE, count * STRIDE);
+        size += count;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public TokenType type(int index) {
+        return TYPES[data[index * STRIDE + TYPE]];
+    }
+
+    public int start(int index) {
+        return data[index * STRIDE + START];
+    }
+
+    public int length(int index) {
+        return data[index * STRIDE + LENGTH];
+    }
+
+    public int line(int index) {
+        return lineIndex().line(start(index));
+    }
+
+    public int column(int index) {
+        return lineIndex().column(start(index));
+    }
+
+    private LineIndex lineIndex() {
+        if (lineIndex == null)
+            lineIndex = LineIndex.of(input);
+        return lineIndex;
+    }
+
+    public String lexeme(int index) {
+        return lexeme(input, type(index), start(index), length(index));
+    }
+
+    // valor de um NUMBER lido direto dos bytes, sem passar por String; -1 se passa de 32767
+    public int intValue(int index) {
+        int pos = start(index);
+        int end = pos + length(index);
+        int value = 0;
+        for (; pos < end; pos++) {
+            value = value * 10 + (input.get(pos) - '0');
+            if (value > Short.MAX_VALUE)
+                return -1;
+        }
+        return value;
+    }
+
+    // visao de objeto para quem ainda trabalha com Token
+    public Token token(int index) {
+        return new Token(type(index), lexeme(index), line(index));
+    }
+
+    public static String lexeme(ByteBuffer input, TokenType type, int start, int length) {
+        String fixed = FIXED_LEXEMES[type.ordinal()];
+        if (fixed != null)
+            return fixed;
+        if (type == TokenType.ILLEGAL)
+            return Character.toString((char) input.get(start));
+        return decode(input, start, length);
+    }
+
+    // buffers de heap sao decodificados no lugar; mapeados ou somente-leitura precisam de uma copia
+    public static String decode(ByteBuffer input, int start, int length) {
+        if (input.hasArray())
+            return new String(input.array(), input.arrayOffset() + start, length, StandardCharsets.UTF_8);
+        byte[] bytes = new byte[length];
+        input.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
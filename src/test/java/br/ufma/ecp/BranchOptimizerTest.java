@@ -0,0 +1,205 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class BranchOptimizerTest extends TestSupport {
+
+    private static VMCode compile(String input) {
+        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        parser.parse();
+        assertTrue(parser.diagnostics().all().toString(), !parser.diagnostics().hasErrors());
+        return parser.vmCode();
+    }
+
+    private static String optimize(String input, BranchOptimizer optimizer) {
+        var code = compile(input);
+        optimizer.optimize(code);
+        return new VMWriter(code).vmOutput();
+    }
+
+    @Test
+    public void testBlocksOfWhile() {
+        var code = compile("""
+            class Main {
+                function void main(int x) {
+                    while (x > 0) {
+                        let x = x - 1;
+                    }
+                    return;
+                }
+            }
+            """);
+        var graph = ControlFlowGraph.build(code, 0, code.size());
+        assertNotNull(graph);
+        var blocks = graph.blocks();
+        // condicao, corpo, saida
+        assertEquals(3, blocks.size());
+        assertEquals(VMCode.IF_GOTO, blocks.get(0).branch());
+        assertEquals(2, blocks.get(0).successors().size());
+        assertEquals(VMCode.GOTO, blocks.get(1).branch());
+        assertEquals(blocks.get(0), blocks.get(1).successors().get(0));
+        assertEquals(VMCode.RETURN, blocks.get(2).branch());
+    }
+
+    @Test
+    public void testIfElseIsInvertedAndThreaded() {
+        var input = """
+            class Main {
+                function int main(int x) {
+                    if (x < 0) {
+                        let x = 1;
+                    } else {
+                        let x = 2;
+                    }
+                    return x;
+                }
+            }
+            """;
+        var expected = """
+            function Main.main 0
+            push argument 0
+            push constant 0
+            lt
+            not
+            if-goto IF_FALSE0
+            push constant 1
+            pop argument 0
+            goto IF_END0
+            label IF_FALSE0
+            push constant 2
+            pop argument 0
+            label IF_END0
+            push argument 0
+            return
+            """;
+        var optimizer = new BranchOptimizer();
+        assertEquals(expected, optimize(input, optimizer));
+        assertEquals(1, (int) optimizer.hits().get("inverted"));
+    }
+
+    @Test
+    public void testIntConditionKeepsBothJumps() {
+        var input = """
+            class Main {
+                function int main(int x) {
+                    if (x) {
+                        let x = 1;
+                    }
+                    return x;
+                }
+            }
+            """;
+        var vm = optimize(input, new BranchOptimizer());
+        assertTrue(vm, vm.contains("if-goto IF_TRUE0\ngoto IF_FALSE0\nlabel IF_TRUE0\n"));
+    }
+
+    @Test
+    public void testJumpChainsAreThreadedAndLabelsMerged() {
+        var input = """
+            class Main {
+                function void main(int x) {
+                    while (x > 0) {
+                        let x = x - 1;
+                        while (x > 10) {
+                            let x = x - 10;
+                        }
+                    }
+                    if (x = 0) {
+                        while (x < 5) {
+                            let x = x + 1;
+                        }
+                    }
+                    return;
+                }
+            }
+            """;
+        var optimizer = new BranchOptimizer();
+        var vm = optimize(input, optimizer);
+        // a saida do while interno vai direto ao teste do externo
+        assertTrue(vm, vm.contains("not\nif-goto WHILE_EXP0\n"));
+        assertTrue(vm, !vm.contains("WHILE_END1"));
+        // WHILE_END2 e IF_FALSE0 marcam o mesmo ponto
+        assertTrue(vm, vm.contains("label WHILE_END2\npush constant 0\nreturn\n"));
+        assertTrue(vm, !vm.contains("IF_FALSE0"));
+        assertEquals(1, (int) optimizer.hits().get("threaded"));
+    }
+
+    @Test
+    public void testCodeAfterReturnIsUnreachable() {
+        var input = """
+            class Main {
+                function int main(int x) {
+                    if (x > 3) {
+                        return 1;
+                    } else {
+                        return 2;
+                    }
+                    return 3;
+                }
+            }
+            """;
+        var expected = """
+            function Main.main 0
+            push argument 0
+            push constant 3
+            gt
+            not
+            if-goto IF_FALSE0
+            push constant 1
+            return
+            label IF_FALSE0
+            push constant 2
+            return
+            """;
+        var optimizer = new BranchOptimizer();
+        assertEquals(expected, optimize(input, optimizer));
+        assertEquals(3, (int) optimizer.hits().get("unreachable"));
+    }
+
+    @Test
+    public void testSquareHasFewerJumps() throws IOException {
+        int before = 0;
+        int after = 0;
+        for (var file : new String[] { "Main.jack", "Square.jack", "SquareGame.jack" }) {
+            var input = fromFile("Square/" + file);
+            before += jumps(new VMWriter(compile(input)).vmOutput());
+            after += jumps(optimize(input, new BranchOptimizer()));
+        }
+        assertTrue(before + " -> " + after, after < before);
+    }
+
+    // as condicoes do ExpressionLessSquare sao variaveis: o peephole nao inverte nada, mas o -O
+    // completo ainda encolhe os if pelo grafo
+    @Test
+    public void testExpressionLessSquareShrinksWithFullPipeline() throws IOException {
+        Map<String, Integer> hits = new LinkedHashMap<>();
+        int before = 0;
+        int after = 0;
+        for (var file : new String[] { "Main.jack", "Square.jack", "SquareGame.jack" }) {
+            var input = fromFile("ExpressionLessSquare/" + file);
+            before += compile(input).size();
+            var code = compile(input);
+            App.optimize(code, hits);
+            after += code.size();
+        }
+        assertTrue(before + " -> " + after, after < before);
+        assertEquals(0, (int) hits.get("peephole branch-over-goto"));
+    }
+
+    private static int jumps(String vm) {
+        int n = 0;
+        for (var line : vm.split("\n"))
+            if (line.startsWith("goto") || line.startsWith("if-goto") || line.startsWith("label"))
+                n++;
+        return n;
+    }
+}
@@ -0,0 +1,121 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BuildWatcherTest extends TestSupport {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private BuildWatcher watcher;
+    private Thread thread;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    @Before
+    public void start() throws IOException, InterruptedException {
+        directory = folder.newFolder("Square");
+        for (String file : new String[] { "Main", "Square", "SquareGame" })
+            Files.writeString(new File(directory, file + ".jack").toPath(), fromFile("Square/" + file + ".jack"));
+        watcher = new BuildWatcher(CompilerOptions.parse(new String[] { "--watch", directory.getPath() }),
+                new PrintStream(out, true, StandardCharsets.UTF_8), new PrintStream(err, true, StandardCharsets.UTF_8));
+        thread = new Thread(() -> {
+            try {
+                watcher.run();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+        awaitOutput("watching ");
+    }
+
+    @After
+    public void stop() throws IOException, InterruptedException {
+        watcher.stop();
+        thread.join(5000);
+    }
+
+    private String output() {
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    // espera ate o texto aparecer na saida, com limite de 10 s
+    private void awaitOutput(String text) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!output().contains(text)) {
+            assertTrue("timed out waiting for: " + text + "\n" + output(), System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private void append(String name, String text) throws IOException {
+        var path = new File(directory, name).toPath();
+        Files.writeString(path, Files.readString(path) + text);
+    }
+
+    @Test
+    public void testRecompilesOnlyChangedFiles() throws IOException, InterruptedException {
+        File vm = new File(directory, "Square.vm");
+        assertTrue(vm.isFile());
+        assertTrue(vm.delete());
+
+        append("Square.jack", "\n// changed\n");
+        awaitOutput("rebuilt 1 file(s)");
+        assertTrue(output().contains("compiled Square.jack in "));
+        assertFalse(output().contains("compiled Main.jack in "));
+        assertTrue(vm.isFile());
+    }
+
+    @Test
+    public void testReportsErrorsAndRemovesDeletedSources() throws IOException, InterruptedException {
+        Files.writeString(new File(directory, "Main.jack").toPath(), "class Main { function void main() { let } }");
+        awaitOutput("failed Main.jack in ");
+        awaitErrors();
+
+        assertTrue(new File(directory, "SquareGame.jack").delete());
+        awaitOutput("removed SquareGame.vm");
+        assertFalse(new File(directory, "SquareGame.vm").exists());
+    }
+
+    // um arquivo que falhou e compilado de novo mesmo salvo sem mudancas
+    @Test
+    public void testFailedFileIsRetriedWithSameContent() throws IOException, InterruptedException {
+        var main = new File(directory, "Main.jack").toPath();
+        var broken = "class Main { function void main() { let } }";
+        Files.writeString(main, broken);
+        awaitOutput("failed Main.jack in ");
+        int first = output().indexOf("failed Main.jack in ");
+
+        Files.writeString(main, broken);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (output().indexOf("failed Main.jack in ", first + 1) < 0) {
+            assertTrue("not retried\n" + output(), System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private void awaitErrors() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (err.size() == 0) {
+            assertTrue("no errors reported", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompileCacheTest extends TestSupport {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer source(String s) {
+        return ByteBuffer.wrap(bytes(s));
+    }
+
+    private static Path entry(Path root, String key) {
+        return root.resolve(key.substring(0, 2)).resolve(key.substring(2) + ".vm");
+    }
+
+    @Test
+    public void testKeyDependsOnSourceAndOptions() {
+        var plain = new CompilerOptions();
+        assertEquals(CompileCache.key(source("class A {}"), plain), CompileCache.key(source("class A {}"), plain));
+        assertNotEquals(CompileCache.key(source("class A {}"), plain), CompileCache.key(source("class B {}"), plain));
+        assertNotEquals(CompileCache.key(source("class A {}"), plain),
+                CompileCache.key(source("class A {}"), CompilerOptions.optimized()));
+    }
+
+    @Test
+    public void testKeyDoesNotMoveTheBuffer() {
+        var input = source("class A {}");
+        String key = CompileCache.key(input, new CompilerOptions());
+        assertEquals(0, input.position());
+        assertEquals(key, CompileCache.key(input, new CompilerOptions()));
+    }
+
+    @Test
+    public void testStoresAndCountsHitsAndMisses() throws IOException {
+        var cache = new CompileCache(folder.getRoot().toPath(), 1 << 20);
+        String key = CompileCache.key(source("class A {}"), new CompilerOptions());
+        assertNull(cache.get(key));
+        cache.put(key, bytes("return\n"));
+        assertArrayEquals(bytes("return\n"), cache.get(key));
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    public void testTrimEvictsLeastRecentlyUsed() throws IOException {
+        Path root = folder.getRoot().toPath();
+        var cache = new CompileCache(root, 250);
+        String[] keys = new String[3];
+        for (int i = 0; i < 3; i++) {
+            keys[i] = CompileCache.key(source("class C" + i + " {}"), new CompilerOptions());
+            cache.put(keys[i], new byte[100]);
+            Files.setLastModifiedTime(entry(root, keys[i]), FileTime.fromMillis(1000L * (i + 1)));
+        }
+        // o mais antigo volta a ser usado: o segundo passa a ser o menos usado
+        assertNotNull(cache.get(keys[0]));
+        cache.trim();
+        assertEquals(1, cache.evictions());
+        assertTrue(Files.exists(entry(root, keys[0])));
+        assertTrue(!Files.exists(entry(root, keys[1])));
+        assertTrue(Files.exists(entry(root, keys[2])));
+    }
+
+    @Test
+    public void testSecondCheckoutIsServedFromTheCache() throws IOException {
+        Path cache = folder.newFolder("cache").toPath();
+        File[] checkouts = { folder.newFolder("a"), folder.newFolder("b") };
+        for (File checkout : checkouts)
+            for (String file : new String[] { "Main", "Square", "SquareGame" })
+                Files.writeString(new File(checkout, file + ".jack").toPath(), fromFile("Square/" + file + ".jack"));
+
+        String[] stats = new String[2];
+        PrintStream out = System.out;
+        try {
+            for (int i = 0; i < 2; i++) {
+                var captured = new ByteArrayOutputStream();
+                System.setOut(new PrintStream(captured, true));
+                App.main(new String[] { "--cache", cache.toString(), checkouts[i].getPath() });
+                stats[i] = captured.toString().lines().filter(l -> l.startsWith("cache:")).findFirst().orElseThrow();
+            }
+        } finally {
+            System.setOut(out);
+        }
+        assertEquals("cache: 0 hits, 3 misses, 3 stored, 0 evicted", stats[0]);
+        assertEquals("cache: 3 hits, 0 misses, 0 stored, 0 evicted", stats[1]);
+        for (String file : new String[] { "Main", "Square", "SquareGame" })
+            assertEquals(Files.readString(new File(checkouts[0], file + ".vm").toPath()),
+                    Files.readString(new File(checkouts[1], file + ".vm").toPath()));
+        try (Stream<Path> entries = Files.walk(cache)) {
+            assertEquals(3, entries.filter(p -> p.toString().endsWith(".vm")).count());
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompileDaemonTest extends TestSupport {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private CompileDaemon daemon;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    @Before
+    public void start() throws IOException {
+        directory = folder.newFolder("Square");
+        for (String file : new String[] { "Main", "Square", "SquareGame" })
+            Files.writeString(new File(directory, file + ".jack").toPath(), fromFile("Square/" + file + ".jack"));
+        daemon = CompileDaemon.start(0);
+    }
+
+    @After
+    public void stop() {
+        daemon.stop();
+    }
+
+    private Integer forward(int port, String token, String[]... builds) {
+        return CompileDaemon.forward(port, token, List.of(builds), new PrintStream(out, true, StandardCharsets.UTF_8),
+                new PrintStream(err, true, StandardCharsets.UTF_8));
+    }
+
+    private int forward(String[]... builds) {
+        return forward(daemon.port(), daemon.token(), builds);
+    }
+
+    @Test
+    public void testCompilesForClient() {
+        assertEquals(0, forward(new String[] { "--client", directory.getPath() }));
+        assertTrue(out.toString(StandardCharsets.UTF_8).contains("compiling " + new File(directory, "Main.jack")));
+        assertEquals("", err.toString(StandardCharsets.UTF_8));
+        for (String name : new String[] { "Main", "Square", "SquareGame" })
+            assertTrue(new File(directory, name + ".vm").isFile());
+    }
+
+    @Test
+    public void testReportsErrorsAndLatency() throws IOException {
+        Files.writeString(new File(directory, "Broken.jack").toPath(), "class Broken { function void f() { let } }");
+        assertEquals(1, forward(new String[] { directory.getPath() }, new String[] { "--bogus" }));
+        assertTrue(err.toString(StandardCharsets.UTF_8).contains("unexpected argument: --bogus"));
+
+        assertTrue(daemon.stats(), daemon.stats().startsWith("builds: 2, p50: "));
+        var connection = stats();
+        connection.setRequestProperty("Authorization", "Bearer " + daemon.token());
+        var stats = new String(connection.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertTrue(stats, stats.contains("p99: "));
+    }
+
+    // --client e tirado pelo cliente; um POST direto com essas opcoes e recusado
+    @Test
+    public void testRejectsModesThatAreNotBuilds() throws IOException {
+        for (String mode : new String[] { "--watch", "--client", "--daemon" }) {
+            var connection = (HttpURLConnection) new URL("http://127.0.0.1:" + daemon.port() + "/compile").openConnection();
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Authorization", "Bearer " + daemon.token());
+            connection.setDoOutput(true);
+            try (var body = connection.getOutputStream()) {
+                body.write((mode + "\t" + directory.getPath() + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            var response = new String(connection.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(response, response.contains("err --daemon, --client and --watch cannot be sent to a daemon"));
+            assertTrue(response, response.endsWith("exit 1\n"));
+        }
+        assertFalse(new File(directory, "Main.vm").exists());
+    }
+
+    private HttpURLConnection stats() throws IOException {
+        return (HttpURLConnection) new URL("http://127.0.0.1:" + daemon.port() + "/stats").openConnection();
+    }
+
+    @Test
+    public void testRequestsWithoutTokenAreRejected() throws IOException {
+        assertEquals(403, stats().getResponseCode());
+        var connection = stats();
+        connection.setRequestProperty("Authorization", "Bearer " + "0".repeat(64));
+        assertEquals(403, connection.getResponseCode());
+
+        // nada rodou no daemon: o cliente pode compilar sozinho
+        assertNull(forward(daemon.port(), "wrong", new String[] { directory.getPath() }));
+        assertFalse(new File(directory, "Main.vm").exists());
+        assertEquals("builds: 0", daemon.stats());
+    }
+
+    @Test
+    public void testFallsBackOnlyWhenNoDaemonAnswers() throws IOException {
+        int port = daemon.port();
+        daemon.stop();
+        assertNull(forward(port, daemon.token(), new String[] { directory.getPath() }));
+        daemon = CompileDaemon.start(0);
+    }
+
+    // depois que a resposta comecou, uma conexao cortada e erro, nao motivo para compilar de novo
+    @Test
+    public void testBrokenResponseIsAnError() throws Exception {
+        try (var fake = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            var thread = new Thread(() -> {
+                try (Socket socket = fake.accept()) {
+                    socket.getInputStream().read(new byte[4096]);
+                    socket.getOutputStream().write(("HTTP/1.1 200 OK\r\nContent-Length: 1000\r\n\r\n"
+                            + "out compiling Main.jack\n").getBytes(StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    // o teste falha pelo resultado
+                }
+            });
+            thread.start();
+            assertEquals(Integer.valueOf(1), forward(fake.getLocalPort(), "token", new String[] { directory.getPath() }));
+            thread.join();
+        }
+        assertEquals("compiling Main.jack\n", out.toString(StandardCharsets.UTF_8));
+        assertTrue(err.toString(StandardCharsets.UTF_8).contains("compile daemon"));
+    }
+
+    @Test
+    public void testPortFileIsPrivate() throws IOException {
+        Assume.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        Path file = folder.getRoot().toPath().resolve("state").resolve("daemon");
+        CompileDaemon.writePortFile(file, 1234, daemon.token());
+        assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(file.getParent())));
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+        var errors = new PrintStream(err, true, StandardCharsets.UTF_8);
+        assertArrayEquals(new String[] { "1234", daemon.token() }, CompileDaemon.readPortFile(file, errors));
+
+        // um diretorio que outros podem escrever nao e confiavel
+        Files.setPosixFilePermissions(file.getParent(), PosixFilePermissions.fromString("rwxrwxrwx"));
+        assertNull(CompileDaemon.readPortFile(file, errors));
+        assertTrue(err.toString(StandardCharsets.UTF_8).contains("accessible by other users"));
+    }
+}
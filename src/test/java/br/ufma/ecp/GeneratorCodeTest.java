@@ -2,8 +2,11 @@ package br.ufma.ecp;
 
 
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 
 import org.junit.Test;
@@ -830,7 +833,196 @@ public class GeneratorCodeTest {
         assertEquals(expected, actual);
     }
 
+    @Test
+    public void testVMWriterMatchesStringFormat() throws IOException {
+        var writer = new VMWriter();
+        var expected = new StringBuilder();
+        int[] values = { 0, 7, 9, 10, 99, 100, 101, 999, 1000, 32767, 65535, -1, -32768,
+                Integer.MAX_VALUE, Integer.MIN_VALUE };
+        for (int v : values) {
+            writer.writePush(VMWriter.Segment.CONST, v);
+            expected.append(String.format("push %s %d\n", "constant", v));
+            writer.writePop(VMWriter.Segment.THAT, v);
+            expected.append(String.format("pop %s %d\n", "that", v));
+            writer.writeCall("Math.multiply", v);
+            expected.append(String.format("call %s %d\n", "Math.multiply", v));
+        }
+        for (var command : VMWriter.Command.values()) {
+            writer.writeArithmetic(command);
+            expected.append(String.format("%s\n", command.name().toLowerCase()));
+        }
+        writer.writeFunction("Main.main", 3);
+        writer.writeLabel("WHILE_EXP0");
+        writer.writeIf("IF_TRUE0");
+        writer.writeGoto("WHILE_END0");
+        writer.writeReturn();
+        expected.append("function Main.main 3\nlabel WHILE_EXP0\nif-goto IF_TRUE0\ngoto WHILE_END0\nreturn\n");
 
-   
-    
-}
\ No newline at end of file
+        assertEquals(expected.toString(), writer.vmOutput());
+
+        var out = new ByteArrayOutputStream();
+        writer.writeTo(out);
+        assertArrayEquals(expected.toString().getBytes(StandardCharsets.US_ASCII), out.toByteArray());
+    }
+
+    @Test
+    public void testVMCodeIsOneIntPerInstruction() {
+        var input = """
+            class Main {
+                function void main() {
+                    var int x;
+                    let x = 30000;
+                    while (x > 0) {
+                        let x = x - 1;
+                    }
+                    return;
+                }
+            }
+            """;
+        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        parser.parse();
+        var code = parser.vmCode();
+        assertEquals(parser.VMOutput().split("\n").length, code.size());
+
+        int function = code.instruction(0);
+        assertEquals(VMCode.FUNCTION, VMCode.opcode(function));
+        assertEquals("Main.main", code.name(code.nameId(function)));
+        assertEquals(1, code.count(function));
+
+        int push = code.instruction(1);
+        assertEquals(VMCode.PUSH, VMCode.opcode(push));
+        assertEquals(VMWriter.Segment.CONST, VMCode.segment(push));
+        assertEquals(30000, code.index(push));
+
+        // rotulos repetidos usam o mesmo id
+        int label = code.instruction(3);
+        assertEquals(VMCode.LABEL, VMCode.opcode(label));
+        int jump = code.instruction(code.size() - 4);
+        assertEquals(VMCode.GOTO, VMCode.opcode(jump));
+        assertEquals(code.nameId(label), code.nameId(jump));
+        assertEquals("WHILE_EXP0", code.name(code.nameId(jump)));
+    }
+
+    private static String foldedExpression(String expression) {
+        var parser = new Parser(expression.getBytes(StandardCharsets.UTF_8)).withOptions(CompilerOptions.optimized());
+        parser.parseExpression();
+        return parser.VMOutput();
+    }
+
+    @Test
+    public void testConstantFolding() {
+        assertEquals("push constant 0\n", foldedExpression("1024 * 0"));
+        assertEquals("push constant 5\nneg\n", foldedExpression("(2 + 3) * -1"));
+        // 16 bits em complemento de dois
+        assertEquals("push constant 4096\nneg\n", foldedExpression("60 * 1024"));
+        assertEquals("push constant 32767\nnot\n", foldedExpression("32767 + 1"));
+        assertEquals("push constant 1\nneg\n", foldedExpression("(1 < 2) & ~0"));
+        assertEquals("push constant 0\n", foldedExpression("true = false"));
+        assertEquals("push constant 3\n", foldedExpression("-7 / -2"));
+    }
+
+    @Test
+    public void testConstantFoldingIsLeftToRight() {
+        var input = """
+            class Main {
+                function int f(int x) {
+                    return 2 * 3 + x + 4;
+                }
+            }
+            """;
+        var expected = """
+            function Main.f 0
+            push constant 6
+            push argument 0
+            add
+            push constant 4
+            add
+            return
+            """;
+        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8)).withOptions(CompilerOptions.optimized());
+        parser.parse();
+        assertEquals(expected, parser.VMOutput());
+    }
+
+    @Test
+    public void testNoFoldingOfDivisionByZero() {
+        assertEquals("push constant 1\npush constant 0\ncall Math.divide 2\n", foldedExpression("1 / 0"));
+        // -32768 / -1 nao e dobrado; a divisao por -1 vira so um neg
+        assertEquals("push constant 32767\nnot\nneg\n", foldedExpression("(32767 + 1) / -1"));
+    }
+
+    @Test
+    public void testStringPool() {
+        var input = """
+            class Main {
+                static int count;
+                function void main() {
+                    while (count < 3) {
+                        do Output.printString("ok");
+                        do Output.printString("no");
+                        do Output.printString("ok");
+                        let count = count + 1;
+                    }
+                    return;
+                }
+            }
+            """;
+        var expected = """
+            function Main.main 0
+            label WHILE_EXP0
+            push static 0
+            push constant 3
+            lt
+            not
+            if-goto WHILE_END0
+            call Main.__str0 0
+            call Output.printString 1
+            pop temp 0
+            call Main.__str1 0
+            call Output.printString 1
+            pop temp 0
+            call Main.__str0 0
+            call Output.printString 1
+            pop temp 0
+            push static 0
+            push constant 1
+            add
+            pop static 0
+            goto WHILE_EXP0
+            label WHILE_END0
+            push constant 0
+            return
+            function Main.__str0 0
+            push static 1
+            if-goto STR_READY
+            push constant 2
+            call String.new 1
+            push constant 111
+            call String.appendChar 2
+            push constant 107
+            call String.appendChar 2
+            pop static 1
+            label STR_READY
+            push static 1
+            return
+            function Main.__str1 0
+            push static 2
+            if-goto STR_READY
+            push constant 2
+            call String.new 1
+            push constant 110
+            call String.appendChar 2
+            push constant 111
+            call String.appendChar 2
+            pop static 2
+            label STR_READY
+            push static 2
+            return
+            """;
+        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8))
+                .withOptions(new CompilerOptions().withStringPool());
+        parser.parse();
+        assertEquals(expected, parser.VMOutput());
+    }
+
+}
@@ -0,0 +1,250 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class HackAsmWriterTest {
+
+    // programa sem o SO: Memory e Math minimos escritos em Jack, Sys.init guarda o resultado e para
+    private static final Map<String, String> PROGRAM = new LinkedHashMap<>();
+
+    static {
+        PROGRAM.put("Sys", """
+            class Sys {
+                static int result, check;
+
+                function void init() {
+                    do Memory.init();
+                    let result = Main.main();
+                    let check = Main.check();
+                    while (true) {}
+                    return;
+                }
+            }
+            """);
+        PROGRAM.put("Memory", """
+            class Memory {
+                static Array ram;
+                static int free;
+
+                function void init() {
+                    let ram = 0;
+                    let free = 2048;
+                    return;
+                }
+
+                function int peek(int address) {
+                    return ram[address];
+                }
+
+                function int alloc(int size) {
+                    var int block;
+                    let block = free;
+                    let free = free + size;
+                    return block;
+                }
+            }
+            """);
+        PROGRAM.put("Math", """
+            class Math {
+                function int multiply(int x, int y) {
+                    var int sum, bit;
+                    let sum = 0;
+                    let bit = 1;
+                    while (~(bit = 0)) {
+                        if (~((y & bit) = 0)) {
+                            let sum = sum + x;
+                        }
+                        let x = x + x;
+                        let bit = bit + bit;
+                    }
+                    return sum;
+                }
+
+                function int divide(int x, int y) {
+                    var int q;
+                    let q = 0;
+                    while (~(x < y)) {
+                        let x = x - y;
+                        let q = q + 1;
+                    }
+                    return q;
+                }
+            }
+            """);
+        PROGRAM.put("Point", """
+            class Point {
+                field int x, y;
+
+                constructor Point new(int ax, int ay) {
+                    let x = ax;
+                    let y = ay;
+                    return this;
+                }
+
+                method int dot(Point other) {
+                    return (x * other.getX()) + (y * other.getY());
+                }
+
+                method int getX() { return x; }
+                method int getY() { return y; }
+            }
+            """);
+        PROGRAM.put("Main", """
+            class Main {
+                function int fib(int n) {
+                    if (n < 2) {
+                        return n;
+                    }
+                    return Main.fib(n - 1) + Main.fib(n - 2);
+                }
+
+                function int main() {
+                    var Array a;
+                    var int i, sum;
+                    var Point p, q;
+                    let a = Array.new(10);
+                    let i = 0;
+                    while (i < 10) {
+                        let a[i] = i * i;
+                        let i = i + 1;
+                    }
+                    let sum = 0;
+                    let i = 0;
+                    while (i < 10) {
+                        let sum = sum + a[i];
+                        let i = i + 1;
+                    }
+                    let p = Point.new(3, -4);
+                    let q = Point.new(-5, 7);
+                    return sum + p.dot(q) + Main.fib(12) + (1000 / 7) - (-1);
+                }
+
+                function int check() {
+                    var int x, y, z, w, v;
+                    let x = -32767 - 1;
+                    let y = ~0;
+                    let z = (x < 0) & (y = -1);
+                    let w = Memory.peek(2048);
+                    let v = 1;
+                    return x + y + z + w + v;
+                }
+            }
+            """);
+        PROGRAM.put("Array", """
+            class Array {
+                function Array new(int size) {
+                    return Memory.alloc(size);
+                }
+            }
+            """);
+    }
+
+    private static final class Run {
+        final int size;
+        final long cycles;
+        final short result;
+        final short check;
+
+        Run(int size, long cycles, short result, short check) {
+            this.size = size;
+            this.cycles = cycles;
+            this.result = result;
+            this.check = check;
+        }
+    }
+
+    private static Map<String, VMCode> compile(CompilerOptions options) {
+        Map<String, VMCode> units = new LinkedHashMap<>();
+        for (var entry : PROGRAM.entrySet()) {
+            var parser = new Parser(entry.getValue().getBytes(StandardCharsets.UTF_8)).withOptions(options);
+            parser.parse();
+            assertTrue(parser.diagnostics().all().toString(), !parser.diagnostics().hasErrors());
+            VMCode code = parser.vmCode();
+            if (options.optimize())
+                App.optimize(code, new LinkedHashMap<>());
+            units.put(entry.getKey(), code);
+        }
+        return units;
+    }
+
+    private static Run run(String asm) {
+        var assembler = new HackAssembler();
+        int[] rom = assembler.assemble(asm);
+        var emulator = new HackEmulator(rom);
+        emulator.runUntil(assembler.symbols().get("Sys.init$WHILE_EXP0"), 10_000_000);
+        short[] ram = emulator.ram();
+        return new Run(rom.length, emulator.cycles(),
+                ram[assembler.symbols().get("Sys.0")], ram[assembler.symbols().get("Sys.1")]);
+    }
+
+    private static Run textbook(Map<String, VMCode> units) {
+        var translator = new TextbookTranslator();
+        units.forEach(translator::translate);
+        return run(translator.output());
+    }
+
+    private static Run native_(Map<String, VMCode> units) {
+        var writer = new HackAsmWriter(true);
+        units.forEach(writer::translate);
+        return run(writer.output());
+    }
+
+    // 285 + (3 * -5 + -4 * 7) + 144 + 142 + 1
+    private static final short RESULT = 285 - 15 - 28 + 144 + 142 + 1;
+    // -32768 + -1 + -1 + 0 + 1, com estouro de 16 bits
+    private static final short CHECK = (short) (-32768 - 1 - 1 + 0 + 1);
+
+    @Test
+    public void testTextbookTranslationComputesTheExpectedValues() {
+        Run reference = textbook(compile(new CompilerOptions()));
+        assertEquals(RESULT, reference.result);
+        assertEquals(CHECK, reference.check);
+    }
+
+    @Test
+    public void testNativeBackendMatchesTheTextbookTranslation() {
+        for (var options : new CompilerOptions[] { new CompilerOptions(), CompilerOptions.optimized() }) {
+            var units = compile(options);
+            Run reference = textbook(units);
+            Run optimized = native_(units);
+            assertEquals(reference.result, optimized.result);
+            assertEquals(reference.check, optimized.check);
+            assertTrue(optimized.size + " >= " + reference.size, optimized.size < reference.size);
+            assertTrue(optimized.cycles + " >= " + reference.cycles, optimized.cycles < reference.cycles);
+        }
+    }
+
+    @Test
+    public void testConstantStoresSkipTheStack() {
+        var code = new VMCode();
+        var writer = new VMWriter(code);
+        writer.writeFunction("Main.f", 1);
+        writer.writePush(VMWriter.Segment.CONST, 1);
+        writer.writePop(VMWriter.Segment.LOCAL, 0);
+        writer.writePush(VMWriter.Segment.CONST, 0);
+        writer.writePop(VMWriter.Segment.STATIC, 2);
+        var asm = new HackAsmWriter(false);
+        asm.translate("Main", code);
+        assertEquals("""
+            (Main.f)
+            @SP
+            A=M
+            M=0
+            D=A+1
+            @SP
+            M=D
+            @LCL
+            A=M
+            M=1
+            @Main.2
+            M=0
+            """, asm.output());
+    }
+}
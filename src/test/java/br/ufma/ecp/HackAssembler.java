@@ -0,0 +1,108 @@
+package br.ufma.ecp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// montador do Hack para os testes do backend de assembly
+public class HackAssembler {
+
+    private static final Map<String, Integer> COMP = new HashMap<>();
+    private static final Map<String, Integer> JUMP = Map.of(
+            "JGT", 1, "JEQ", 2, "JGE", 3, "JLT", 4, "JNE", 5, "JLE", 6, "JMP", 7);
+
+    static {
+        String[][] table = {
+                { "0", "0101010" }, { "1", "0111111" }, { "-1", "0111010" }, { "D", "0001100" },
+                { "A", "0110000" }, { "!D", "0001101" }, { "!A", "0110001" }, { "-D", "0001111" },
+                { "-A", "0110011" }, { "D+1", "0011111" }, { "A+1", "0110111" }, { "D-1", "0001110" },
+                { "A-1", "0110010" }, { "D+A", "0000010" }, { "D-A", "0010011" }, { "A-D", "0000111" },
+                { "D&A", "0000000" }, { "D|A", "0010101" } };
+        for (String[] entry : table) {
+            COMP.put(entry[0], Integer.parseInt(entry[1], 2));
+            if (entry[0].contains("A"))
+                COMP.put(entry[0].replace('A', 'M'), Integer.parseInt(entry[1], 2) | 0b1000000);
+        }
+        // formas comutadas que aparecem em codigo gerado
+        COMP.put("A+D", COMP.get("D+A"));
+        COMP.put("M+D", COMP.get("D+M"));
+        COMP.put("A&D", COMP.get("D&A"));
+        COMP.put("M&D", COMP.get("D&M"));
+        COMP.put("A|D", COMP.get("D|A"));
+        COMP.put("M|D", COMP.get("D|M"));
+    }
+
+    private final Map<String, Integer> symbols = new HashMap<>();
+
+    public HackAssembler() {
+        for (int i = 0; i < 16; i++)
+            symbols.put("R" + i, i);
+        symbols.put("SP", 0);
+        symbols.put("LCL", 1);
+        symbols.put("ARG", 2);
+        symbols.put("THIS", 3);
+        symbols.put("THAT", 4);
+        symbols.put("SCREEN", 16384);
+        symbols.put("KBD", 24576);
+    }
+
+    public Map<String, Integer> symbols() {
+        return symbols;
+    }
+
+    public int[] assemble(String asm) {
+        List<String> lines = new ArrayList<>();
+        for (String line : asm.split("\n")) {
+            int comment = line.indexOf("//");
+            if (comment >= 0)
+                line = line.substring(0, comment);
+            line = line.strip();
+            if (line.isEmpty())
+                continue;
+            if (line.startsWith("(")) {
+                symbols.put(line.substring(1, line.length() - 1), lines.size());
+            } else {
+                lines.add(line);
+            }
+        }
+
+        int nextVariable = 16;
+        int[] rom = new int[lines.size()];
+        for (int i = 0; i < rom.length; i++) {
+            String line = lines.get(i);
+            if (line.startsWith("@")) {
+                String value = line.substring(1);
+                if (Character.isDigit(value.charAt(0))) {
+                    rom[i] = Integer.parseInt(value);
+                } else {
+                    Integer address = symbols.get(value);
+                    if (address == null) {
+                        address = nextVariable++;
+                        symbols.put(value, address);
+                    }
+                    rom[i] = address;
+                }
+                continue;
+            }
+            String dest = "";
+            String jump = null;
+            int eq = line.indexOf('=');
+            if (eq >= 0) {
+                dest = line.substring(0, eq);
+                line = line.substring(eq + 1);
+            }
+            int semi = line.indexOf(';');
+            if (semi >= 0) {
+                jump = line.substring(semi + 1);
+                line = line.substring(0, semi);
+            }
+            Integer comp = COMP.get(line);
+            if (comp == null)
+                throw new IllegalArgumentException("invalid comp: " + lines.get(i));
+            int d = (dest.contains("A") ? 4 : 0) | (dest.contains("D") ? 2 : 0) | (dest.contains("M") ? 1 : 0);
+            rom[i] = 0b111 << 13 | comp << 6 | d << 3 | (jump == null ? 0 : JUMP.get(jump));
+        }
+        return rom;
+    }
+}
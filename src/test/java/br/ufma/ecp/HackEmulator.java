@@ -0,0 +1,61 @@
+package br.ufma.ecp;
+
+// CPU do Hack para os testes: executa a ROM e conta os ciclos
+public class HackEmulator {
+
+    private final int[] rom;
+    private final short[] ram = new short[32768];
+    private int a;
+    private int d;
+    private int pc;
+    private long cycles;
+
+    public HackEmulator(int[] rom) {
+        this.rom = rom;
+    }
+
+    public short[] ram() {
+        return ram;
+    }
+
+    public long cycles() {
+        return cycles;
+    }
+
+    // executa ate o PC chegar em stop; falha se passar do limite de ciclos
+    public void runUntil(int stop, long maxCycles) {
+        while (pc != stop) {
+            if (cycles++ >= maxCycles)
+                throw new IllegalStateException("cycle limit reached at pc " + pc);
+            step();
+        }
+    }
+
+    private void step() {
+        int instruction = rom[pc];
+        if ((instruction & 0x8000) == 0) {
+            a = instruction;
+            pc++;
+            return;
+        }
+        int x = d;
+        int y = (instruction & 0x1000) != 0 ? ram[a & 0x7FFF] : a;
+        if ((instruction & 0x800) != 0) x = 0;
+        if ((instruction & 0x400) != 0) x = ~x;
+        if ((instruction & 0x200) != 0) y = 0;
+        if ((instruction & 0x100) != 0) y = ~y;
+        int out = (instruction & 0x80) != 0 ? x + y : x & y;
+        if ((instruction & 0x40) != 0) out = ~out;
+        out = (short) out;
+
+        int oldA = a;
+        if ((instruction & 0x8) != 0) ram[oldA & 0x7FFF] = (short) out;
+        if ((instruction & 0x20) != 0) a = out;
+        if ((instruction & 0x10) != 0) d = out;
+
+        boolean jump = ((instruction & 4) != 0 && out < 0)
+                || ((instruction & 2) != 0 && out == 0)
+                || ((instruction & 1) != 0 && out > 0);
+        pc = jump ? oldA & 0x7FFF : pc + 1;
+    }
+}
@@ -0,0 +1,116 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IncrementalBuildTest extends TestSupport {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+
+    @Before
+    public void copySquare() throws IOException {
+        directory = folder.newFolder("Square");
+        for (String file : new String[] { "Main", "Square", "SquareGame" })
+            Files.writeString(new File(directory, file + ".jack").toPath(), fromFile("Square/" + file + ".jack"));
+    }
+
+    private void build(String... options) {
+        String[] args = new String[options.length + 2];
+        args[0] = "--incremental";
+        System.arraycopy(options, 0, args, 1, options.length);
+        args[args.length - 1] = directory.getPath();
+        App.main(args);
+    }
+
+    private File vm(String name) {
+        return new File(directory, name + ".vm");
+    }
+
+    // marca os .vm com uma data antiga: um .vm reescrito perde a marca
+    private void markOutputs() {
+        for (String name : new String[] { "Main", "Square", "SquareGame" })
+            assertTrue(vm(name).setLastModified(1000));
+    }
+
+    private boolean rewritten(String name) {
+        return vm(name).lastModified() != 1000;
+    }
+
+    @Test
+    public void testUnchangedFilesAreSkipped() throws IOException {
+        build();
+        assertTrue(new File(directory, BuildManifest.FILE_NAME).isFile());
+        markOutputs();
+
+        build();
+        assertFalse(rewritten("Main"));
+        assertFalse(rewritten("Square"));
+        assertFalse(rewritten("SquareGame"));
+
+        var square = new File(directory, "Square.jack").toPath();
+        Files.writeString(square, Files.readString(square) + "\n// changed\n");
+        build();
+        assertFalse(rewritten("Main"));
+        assertTrue(rewritten("Square"));
+        assertFalse(rewritten("SquareGame"));
+    }
+
+    @Test
+    public void testChangedOptionsRecompileEverything() {
+        build();
+        markOutputs();
+        build("-O");
+        assertTrue(rewritten("Main"));
+        assertTrue(rewritten("Square"));
+        assertTrue(rewritten("SquareGame"));
+    }
+
+    @Test
+    public void testMissingOutputIsRecompiled() {
+        build();
+        markOutputs();
+        assertTrue(vm("Main").delete());
+        build();
+        assertTrue(vm("Main").isFile());
+        assertFalse(rewritten("Square"));
+    }
+
+    @Test
+    public void testStaleOutputsAreRemovedButForeignOnesAreKept() throws IOException {
+        Files.writeString(vm("Math").toPath(), "function Math.multiply 0\n");
+        build();
+        assertTrue(new File(directory, "SquareGame.jack").delete());
+        build();
+        assertFalse(vm("SquareGame").exists());
+        assertTrue(vm("Math").exists());
+        assertTrue(vm("Main").exists());
+    }
+
+    @Test
+    public void testManifestRecordsHashVersionAndSettings() throws IOException {
+        build("-O");
+        var lines = Files.readAllLines(new File(directory, BuildManifest.FILE_NAME).toPath());
+        assertEquals(4, lines.size());
+        String[] main = lines.get(1).split("\t");
+        assertEquals("Main.jack", main[0]);
+        assertEquals(BuildManifest.hash(new File(directory, "Main.jack")), main[1]);
+        assertEquals(64, main[1].length());
+        assertEquals(BuildManifest.COMPILER_VERSION, main[2]);
+        assertEquals("-O", main[3]);
+        assertNotEquals(main[1], lines.get(2).split("\t")[1]);
+    }
+}
@@ -0,0 +1,139 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class JvmBackendTest {
+
+    // gerador de tabela: primos pelo crivo e uma tabela de potencias com estouro de 16 bits
+    private static final String TABLE = """
+        class Main {
+            function void main() {
+                var Array sieve;
+                var int i, j, count, power;
+                var String line;
+                let sieve = Array.new(200);
+                let i = 2;
+                while (i < 200) {
+                    if (~(sieve[i])) {
+                        let count = count + 1;
+                        let j = i + i;
+                        while (j < 200) {
+                            let sieve[j] = true;
+                            let j = j + i;
+                        }
+                    }
+                    let i = i + 1;
+                }
+                do Output.printInt(count);
+                do Output.println();
+                let line = String.new(8);
+                let power = 1;
+                let i = 0;
+                while (i < 20) {
+                    do line.setInt(power);
+                    do Output.printString(line);
+                    do Output.printChar(44);
+                    let power = power * 3;
+                    let i = i + 1;
+                }
+                do Output.println();
+                do Output.printInt(-7 / 2);
+                do Output.printInt(32767 + 1);
+                do Sys.halt();
+                do Output.printString("not reached");
+                return;
+            }
+        }
+        """;
+
+    private static Map<String, VMCode> compile(CompilerOptions options, Map<String, String> sources) {
+        Map<String, VMCode> units = new LinkedHashMap<>();
+        for (var entry : sources.entrySet()) {
+            var parser = new Parser(entry.getValue().getBytes(StandardCharsets.UTF_8)).withOptions(options);
+            parser.parse();
+            assertTrue(parser.diagnostics().all().toString(), !parser.diagnostics().hasErrors());
+            if (options.optimize())
+                App.optimize(parser.vmCode(), new LinkedHashMap<>());
+            units.put(entry.getKey(), parser.vmCode());
+        }
+        return units;
+    }
+
+    private static void assertSameAsInterpreter(Map<String, String> sources) {
+        for (var options : new CompilerOptions[] { new CompilerOptions(), CompilerOptions.optimized() }) {
+            var units = compile(options, sources);
+            var interpreter = new VMInterpreter();
+            var jvm = new JvmBackend();
+            units.forEach(interpreter::load);
+            units.forEach(jvm::load);
+            assertTrue(interpreter.run("Main.main"));
+            assertTrue(jvm.run("Main.main"));
+            assertEquals(interpreter.output(), jvm.output());
+            assertEquals(interpreter.returnValue(), jvm.returnValue());
+        }
+    }
+
+    @Test
+    public void testClassFilesAreVersion49() {
+        var classFiles = new JvmBackend().load("Main", compile(new CompilerOptions(), Map.of("Main", TABLE)).get("Main"))
+                .classFiles();
+        byte[] main = classFiles.get("jack/Main");
+        assertEquals(0xCAFEBABE, (main[0] & 0xFF) << 24 | (main[1] & 0xFF) << 16 | (main[2] & 0xFF) << 8 | (main[3] & 0xFF));
+        assertEquals(49, main[7]);
+    }
+
+    @Test
+    public void testOutputMatchesTheInterpreter() {
+        Map<String, String> sources = new LinkedHashMap<>();
+        sources.put("List", VMInterpreterTest.LIST);
+        sources.put("Main", VMInterpreterTest.MAIN);
+        assertSameAsInterpreter(sources);
+    }
+
+    @Test
+    public void testTableGeneratorMatchesTheInterpreter() {
+        assertSameAsInterpreter(Map.of("Main", TABLE));
+        var jvm = new JvmBackend().load("Main", compile(new CompilerOptions(), Map.of("Main", TABLE)).get("Main"));
+        jvm.run("Main.main");
+        assertTrue(jvm.output(), jvm.output().startsWith("46\n1,3,9,27,81,243,729,2187,6561,19683,-6487,"));
+        assertTrue(jvm.output(), jvm.output().endsWith("\n-3-32768"));
+    }
+
+    // ponteiros fora de 0..32767 dao a volta na RAM como no interpretador
+    @Test
+    public void testPointersWrapAroundLikeTheInterpreter() {
+        assertSameAsInterpreter(Map.of("Main", """
+            class Main {
+                function int main() {
+                    var Array high, low;
+                    let high = 32767;
+                    let low = -1;
+                    let high[3000] = 17;
+                    let low[3001] = 25;
+                    do Output.printInt(low[3000]);
+                    do Output.printInt(high[3001]);
+                    return high[3000] + low[3000];
+                }
+            }
+            """));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUndefinedFunctionFailsWhenCalled() {
+        new JvmBackend().load("Main", compile(new CompilerOptions(), Map.of("Main", """
+            class Main {
+                function void main() {
+                    do Missing.run(1);
+                    return;
+                }
+            }
+            """)).get("Main")).run("Main.main");
+    }
+}
@@ -0,0 +1,121 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class LocalSlotAllocatorTest {
+
+    private static String allocate(String input) {
+        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        parser.parse();
+        assertTrue(parser.diagnostics().all().toString(), !parser.diagnostics().hasErrors());
+        new LocalSlotAllocator().optimize(parser.vmCode());
+        return parser.VMOutput();
+    }
+
+    @Test
+    public void testShortLivedLocalsShareASlot() {
+        var input = """
+            class Main {
+                function int main(int x) {
+                    var int a, b, c;
+                    let a = x + 1;
+                    do Output.printInt(a);
+                    let b = x + 2;
+                    do Output.printInt(b);
+                    let c = x + 3;
+                    return c;
+                }
+            }
+            """;
+        var expected = """
+            function Main.main 1
+            push argument 0
+            push constant 1
+            add
+            pop local 0
+            push local 0
+            call Output.printInt 1
+            pop temp 0
+            push argument 0
+            push constant 2
+            add
+            pop local 0
+            push local 0
+            call Output.printInt 1
+            pop temp 0
+            push argument 0
+            push constant 3
+            add
+            pop local 0
+            push local 0
+            return
+            """;
+        assertEquals(expected, allocate(input));
+    }
+
+    @Test
+    public void testOverlappingLocalsKeepTheirSlots() {
+        var input = """
+            class Main {
+                function int main(int x) {
+                    var int i, sum, unused;
+                    let i = 0;
+                    let sum = 0;
+                    while (i < x) {
+                        let sum = sum + i;
+                        let i = i + 1;
+                    }
+                    return sum;
+                }
+            }
+            """;
+        var vm = allocate(input);
+        assertTrue(vm, vm.startsWith("function Main.main 2\n"));
+        assertTrue(vm, vm.contains("pop local 1\n"));
+    }
+
+    @Test
+    public void testLocalReadBeforeWriteKeepsItsZero() {
+        // count comeca em 0 (valor da VM na entrada) e e lido antes de qualquer escrita;
+        // tmp e escrito enquanto count esta vivo, entao nao pode ficar no mesmo slot
+        var input = """
+            class Main {
+                function int main(int x) {
+                    var int tmp, count;
+                    let tmp = x * 2;
+                    do Output.printInt(tmp);
+                    let count = count + 1;
+                    return count;
+                }
+            }
+            """;
+        var vm = allocate(input);
+        assertTrue(vm, vm.startsWith("function Main.main 2\n"));
+    }
+
+    @Test
+    public void testLoopCarriedLocalIsNotReusedInsideTheLoop() {
+        var input = """
+            class Main {
+                function void main(int x) {
+                    var int i, t;
+                    let i = 0;
+                    while (i < x) {
+                        let t = i * 2;
+                        do Output.printInt(t);
+                        let i = i + 1;
+                    }
+                    return;
+                }
+            }
+            """;
+        var vm = allocate(input);
+        // i vive no laco inteiro, t so entre a escrita e o printInt
+        assertTrue(vm, vm.startsWith("function Main.main 2\n"));
+    }
+}
@@ -0,0 +1,121 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParallelCompilerTest extends TestSupport {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String[] SQUARE = { "Main", "Square", "SquareGame" };
+
+    // copia o Square para um diretorio temporario e devolve os .jack em ordem de nome
+    private List<File> square(String name) throws IOException {
+        File directory = folder.newFolder(name);
+        List<File> files = new ArrayList<>();
+        for (String file : SQUARE) {
+            File jack = new File(directory, file + ".jack");
+            Files.writeString(jack.toPath(), fromFile("Square/" + file + ".jack"));
+            files.add(jack);
+        }
+        return files;
+    }
+
+    private static CompilerOptions options(String... args) {
+        String[] all = new String[args.length + 1];
+        System.arraycopy(args, 0, all, 0, args.length);
+        all[args.length] = "unused";
+        return CompilerOptions.parse(all);
+    }
+
+    private static List<String> compileAll(List<File> files, CompilerOptions options) throws IOException {
+        List<String> order = new ArrayList<>();
+        new ParallelCompiler(options, System.err).run(files, f -> App.compile(f, options),
+                compiled -> compiled.diagnostics.hasErrors(), compiled -> order.add(compiled.file.getName()));
+        List<String> outputs = new ArrayList<>(order);
+        for (File file : files)
+            outputs.add(Files.readString(new File(file.getParent(), file.getName().replace(".jack", ".vm")).toPath()));
+        return outputs;
+    }
+
+    @Test
+    public void testParallelBuildMatchesSequentialBuild() throws IOException {
+        var sequential = compileAll(square("seq"), options());
+        assertEquals(List.of("Main.jack", "Square.jack", "SquareGame.jack"), sequential.subList(0, 3));
+        assertEquals(sequential, compileAll(square("par"), options("-j", "3")));
+        assertEquals(sequential, compileAll(square("virtual"), options("-j", "2", "--virtual-threads")));
+    }
+
+    @Test
+    public void testLargestFilesStartFirstAndResultsComeInNameOrder() {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 6; i++)
+            files.add(new SizedFile("F" + i, i * 100));
+        List<String> started = Collections.synchronizedList(new ArrayList<>());
+        List<String> reported = new ArrayList<>();
+        singleThread(false).run(files, f -> {
+            started.add(f.getName());
+            return f.getName();
+        }, name -> false, reported::add);
+        assertEquals(List.of("F5", "F4", "F3", "F2", "F1", "F0"), started);
+        assertEquals(List.of("F0", "F1", "F2", "F3", "F4", "F5"), reported);
+    }
+
+    @Test
+    public void testFailFastSkipsPendingFiles() {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+            files.add(new SizedFile("F" + i, 100 - i));
+        List<String> reported = new ArrayList<>();
+        int skipped = singleThread(true).run(files, File::getName, name -> name.equals("F1"), reported::add);
+        assertEquals(List.of("F0", "F1"), reported);
+        assertEquals(3, skipped);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidJobCount() {
+        options("-j", "0");
+    }
+
+    // executor com uma thread so: as tarefas comecam exatamente na ordem de escalonamento
+    private static ParallelCompiler singleThread(boolean failFast) {
+        var options = options("-j", "2");
+        options.failFast = failFast;
+        return new ParallelCompiler(options, System.err) {
+            @Override
+            ExecutorService executor() {
+                return Executors.newSingleThreadExecutor();
+            }
+        };
+    }
+
+    // arquivo que nao existe no disco, com tamanho fixo
+    private static final class SizedFile extends File {
+        private static final long serialVersionUID = 1L;
+
+        private final long length;
+
+        SizedFile(String name, long length) {
+            super(name);
+            this.length = length;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+    }
+}
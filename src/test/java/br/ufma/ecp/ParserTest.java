@@ -3,6 +3,7 @@ package br.ufma.ecp;
 import static org.junit.Assert.assertEquals;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import org.junit.Test;
 
@@ -11,7 +12,7 @@ public class ParserTest extends TestSupport {
     @Test
     public void testParseTermInteger() {
         var input = "10;";
-        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8)).withXMLOutput();
         parser.parseTerm();
         var expectedResult = """
                 <term>
@@ -29,7 +30,7 @@ public class ParserTest extends TestSupport {
     @Test
     public void testParseTermIdentifer() {
         var input = "varName;";
-        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8)).withXMLOutput();
         parser.parseTerm();
 
         var expectedResult = """
@@ -48,7 +49,7 @@ public class ParserTest extends TestSupport {
     @Test
     public void testParseTermString() {
         var input = "\"Hello World\"";
-        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8)).withXMLOutput();
         parser.parseTerm();
 
         var expectedResult = """
@@ -67,7 +68,7 @@ public class ParserTest extends TestSupport {
     @Test
     public void testParseExpressionSimple() {
         var input = "10+20";
-        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8)).withXMLOutput();
         parser.parseExpression();
 
         var expectedResult = """
@@ -92,7 +93,7 @@ public class ParserTest extends TestSupport {
     @Test
     public void testParseLetSimple() {
         var input = "let var1 = 10+20;";
-        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8)).withXMLOutput();
         parser.parseLet();
         var expectedResult = """
                   <letStatement>
@@ -121,7 +122,7 @@ public class ParserTest extends TestSupport {
     @Test
     public void testParseLetSimpleConchentes() {
         var input = "let var1[1] = 10+20;";
-        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8)).withXMLOutput();
         parser.parseLet();
         var expectedResult = """
                   <letStatement>
@@ -157,7 +158,7 @@ public class ParserTest extends TestSupport {
     @Test
     public void testParseDo() {
         var input = "do Sys.wait(5);";
-        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8)).withXMLOutput();
         parser.parseDo();
 
         var expectedResult = """
@@ -188,7 +189,7 @@ public class ParserTest extends TestSupport {
     @Test
     public void testParseClassVarDec() {
         var input = "field Square square;";
-        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8)).withXMLOutput();
         parser.parseClassVarDec();
         var expectedResult = """
             <classVarDec>
@@ -240,7 +241,7 @@ public class ParserTest extends TestSupport {
         </ifStatement>
               """;
 
-      var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+      var parser = new Parser(input.getBytes(StandardCharsets.UTF_8)).withXMLOutput();
       parser.parseIf();
       var result = parser.XMLOutput();
       expectedResult = expectedResult.replaceAll("  ", "");
@@ -260,7 +261,7 @@ public class ParserTest extends TestSupport {
                 return this;
              }
                 """;;
-        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8)).withXMLOutput();
         parser.parseSubroutineDec();
         var expectedResult = """
             <subroutineDec>
@@ -360,7 +361,7 @@ public class ParserTest extends TestSupport {
          }
         }
         """;;
-    var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+    var parser = new Parser(input.getBytes(StandardCharsets.UTF_8)).withXMLOutput();
     parser.parse();
     var result = parser.XMLOutput();
     System.out.println(result);
@@ -373,7 +374,7 @@ public class ParserTest extends TestSupport {
         var input = fromFile("ExpressionLessSquare/SquareGame.jack");
         var expectedResult =  fromFile("ExpressionLessSquare/SquareGame.xml");
 
-        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8)).withXMLOutput();
         parser.parse();
         var result = parser.XMLOutput();
         expectedResult = expectedResult.replaceAll("  ", "");
@@ -385,7 +386,7 @@ public class ParserTest extends TestSupport {
         var input = fromFile("Square/SquareGame.jack");
         var expectedResult =  fromFile("Square/SquareGame.xml");
 
-        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8)).withXMLOutput();
         parser.parse();
         var result = parser.XMLOutput();
         expectedResult = expectedResult.replaceAll("  ", "");
@@ -398,12 +399,62 @@ public class ParserTest extends TestSupport {
         var input = fromFile("Square/Square.jack");
         var expectedResult =  fromFile("Square/Square.xml");
 
-        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8)).withXMLOutput();
         parser.parse();
         var result = parser.XMLOutput();
         expectedResult = expectedResult.replaceAll("  ", "");
         assertEquals(expectedResult, result);
     }
 
+    @Test
+    public void testSyntaxErrorsAreDiagnostics() {
+        var input = """
+            class Main {
+              function void main() {
+                do Output.printInt(1)
+              }
+            }
+            """;
+        var diagnostics = new Diagnostics();
+        var parser = new Parser(ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8)), "Main.jack", diagnostics);
+        parser.parse();
+
+        assertEquals(1, diagnostics.all().size());
+        var error = diagnostics.all().get(0);
+        assertEquals("Main.jack", error.file());
+        assertEquals(4, error.line());
+        assertEquals(3, error.column());
+        assertEquals("Expected SEMICOLON at '}'", error.message());
+    }
+
+    @Test
+    public void testIntegerConstantOutOfRange() {
+        var input = """
+            class Main {
+              function int main() {
+                return 32767 + 32768 + 99999999999;
+              }
+            }
+            """;
+        var diagnostics = new Diagnostics();
+        var parser = new Parser(ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8)), "Main.jack", diagnostics);
+        parser.parse();
+
+        assertEquals(1, diagnostics.all().size());
+        assertEquals("integer constant out of range at '32768'", diagnostics.all().get(0).message());
+    }
+
+    @Test
+    public void testXMLOutputIsOptIn() throws IOException {
+        var input = fromFile("Square/Square.jack");
+
+        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        parser.parse();
+        assertEquals("", parser.XMLOutput());
+
+        var xmlParser = new Parser(input.getBytes(StandardCharsets.UTF_8)).withXMLOutput();
+        xmlParser.parse();
+        assertEquals(parser.VMOutput(), xmlParser.VMOutput());
+    }
 
-}
\ No newline at end of file
+}
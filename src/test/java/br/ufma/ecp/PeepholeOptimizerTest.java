@@ -0,0 +1,183 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class PeepholeOptimizerTest extends TestSupport {
+
+    private static final String[] FILES = { "Main.jack", "Square.jack", "SquareGame.jack" };
+
+    private static VMCode compile(String input, PeepholeOptimizer optimizer) {
+        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8));
+        parser.parse();
+        assertTrue(parser.diagnostics().all().toString(), !parser.diagnostics().hasErrors());
+        if (optimizer != null)
+            optimizer.optimize(parser.vmCode());
+        return parser.vmCode();
+    }
+
+    private static String text(VMCode code) {
+        return new VMWriter(code).vmOutput();
+    }
+
+    @Test
+    public void testSquareHasFewerInstructions() throws IOException {
+        var optimizer = new PeepholeOptimizer();
+        int before = 0;
+        int after = 0;
+        for (var file : FILES) {
+            var input = fromFile("Square/" + file);
+            before += compile(input, null).size();
+            after += compile(input, optimizer).size();
+        }
+        assertTrue(before + " -> " + after, after < before);
+        assertTrue(optimizer.hits().get("branch-over-goto") > 0);
+    }
+
+    // as condicoes do ExpressionLessSquare sao variaveis: nenhum if pode ser invertido
+    @Test
+    public void testExpressionLessSquareKeepsIntConditions() throws IOException {
+        var optimizer = new PeepholeOptimizer();
+        for (var file : FILES) {
+            var input = fromFile("ExpressionLessSquare/" + file);
+            assertEquals(text(compile(input, null)), text(compile(input, optimizer)));
+        }
+        assertEquals(0, (int) optimizer.hits().get("branch-over-goto"));
+    }
+
+    @Test
+    public void testIfBranchesOverGoto() {
+        var input = """
+            class Main {
+                function void main(int x) {
+                    if (x < 0) {
+                        do Output.printInt(x);
+                    }
+                    return;
+                }
+            }
+            """;
+        var expected = """
+            function Main.main 0
+            push argument 0
+            push constant 0
+            lt
+            not
+            if-goto IF_FALSE0
+            push argument 0
+            call Output.printInt 1
+            pop temp 0
+            label IF_FALSE0
+            push constant 0
+            return
+            """;
+        assertEquals(expected, text(compile(input, new PeepholeOptimizer())));
+    }
+
+    @Test
+    public void testIntConditionIsNotInverted() {
+        // if (x) entra no if para qualquer x diferente de 0, mas not x so e 0 quando x e -1
+        var input = """
+            class Main {
+                function void main(int x) {
+                    if (x) {
+                        do Output.printInt(x);
+                    }
+                    return;
+                }
+            }
+            """;
+        var optimizer = new PeepholeOptimizer();
+        var vm = text(compile(input, optimizer));
+        assertTrue(vm, vm.contains("if-goto IF_TRUE0\ngoto IF_FALSE0\nlabel IF_TRUE0\n"));
+        assertEquals(0, (int) optimizer.hits().get("branch-over-goto"));
+    }
+
+    @Test
+    public void testWhileTrueLosesItsTest() {
+        var input = """
+            class Main {
+                function void main() {
+                    while (true) {
+                        do Output.printInt(1);
+                    }
+                    return;
+                }
+            }
+            """;
+        var expected = """
+            function Main.main 0
+            label WHILE_EXP0
+            push constant 1
+            call Output.printInt 1
+            pop temp 0
+            goto WHILE_EXP0
+            """;
+        var optimizer = new PeepholeOptimizer();
+        assertEquals(expected, text(compile(input, optimizer)));
+        assertEquals(1, (int) optimizer.hits().get("double-not"));
+        assertEquals(1, (int) optimizer.hits().get("false-branch"));
+    }
+
+    @Test
+    public void testArrayStoreOfSimpleValue() {
+        var input = """
+            class Main {
+                function void main(Array a, int i, int v) {
+                    let a[i] = v;
+                    let a[i] = a[v];
+                    return;
+                }
+            }
+            """;
+        var expected = """
+            function Main.main 0
+            push argument 1
+            push argument 0
+            add
+            pop pointer 1
+            push argument 2
+            pop that 0
+            push argument 1
+            push argument 0
+            add
+            push argument 2
+            push argument 0
+            add
+            pop pointer 1
+            push that 0
+            pop temp 0
+            pop pointer 1
+            push temp 0
+            pop that 0
+            push constant 0
+            return
+            """;
+        assertEquals(expected, text(compile(input, new PeepholeOptimizer())));
+    }
+
+    @Test
+    public void testCodeAfterReturnIsRemoved() {
+        var input = """
+            class Main {
+                function int main(int x) {
+                    if (x) {
+                        return 1;
+                    } else {
+                        return 2;
+                    }
+                    return 3;
+                }
+            }
+            """;
+        var code = compile(input, new PeepholeOptimizer());
+        var vm = text(code);
+        assertTrue(vm, !vm.contains("goto IF_END0"));
+        assertTrue(vm, !vm.contains("push constant 3"));
+    }
+}
@@ -0,0 +1,179 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import br.ufma.ecp.token.Token;
+import br.ufma.ecp.token.TokenType;
+
+// lexer por tabela + hash perfeito contra o lexer antigo (Character.isDigit + HashMap<String, TokenType>);
+// tableDrivenScalar desliga a busca SWAR em comentarios e strings
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScannerBenchmark {
+
+    private byte[] input;
+
+    @Setup
+    public void setup() throws IOException {
+        var source = new StringBuilder();
+        while (source.length() < 1 << 20) {
+            source.append(TestSupport.fromFile("Square/Square.jack"));
+            source.append(TestSupport.fromFile("Square/SquareGame.jack"));
+            source.append(TestSupport.fromFile("Square/Main.jack"));
+        }
+        input = source.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int tableDriven() {
+        return new Scanner(input).tokenize().size();
+    }
+
+    @Benchmark
+    public int tableDrivenScalar() {
+        return new Scanner(ByteBuffer.wrap(input), false).tokenize().size();
+    }
+
+    @Benchmark
+    public void tableDrivenTokens(Blackhole bh) {
+        var scanner = new Scanner(input);
+        for (Token tk = scanner.nextToken(); tk.type != TokenType.EOF; tk = scanner.nextToken())
+            bh.consume(tk);
+    }
+
+    @Benchmark
+    public void legacy(Blackhole bh) {
+        var scanner = new LegacyScanner(input);
+        for (Token tk = scanner.nextToken(); tk.type != TokenType.EOF; tk = scanner.nextToken())
+            bh.consume(tk);
+    }
+
+    // copia do nucleo do Scanner antes da tabela de classes e do hash perfeito
+    static class LegacyScanner {
+
+        private static final Map<String, TokenType> keywords = new HashMap<>();
+        private static final String SYMBOLS = "+-*.&|~><=(){}[];,";
+        private static final TokenType[] SYMBOL_TYPES = {
+                TokenType.PLUS, TokenType.MINUS, TokenType.ASTERISK, TokenType.DOT, TokenType.AND,
+                TokenType.OR, TokenType.NOT, TokenType.GT, TokenType.LT, TokenType.EQ, TokenType.LPAREN,
+                TokenType.RPAREN, TokenType.LBRACE, TokenType.RBRACE, TokenType.LBRACKET,
+                TokenType.RBRACKET, TokenType.SEMICOLON, TokenType.COMMA };
+
+        static {
+            for (TokenType type : TokenType.values())
+                if (type.ordinal() >= TokenType.WHILE.ordinal() && type.ordinal() <= TokenType.RETURN.ordinal())
+                    keywords.put(type.name().toLowerCase(), type);
+        }
+
+        private final byte[] input;
+        private int current;
+        private int start;
+        private int line = 1;
+
+        LegacyScanner(byte[] input) {
+            this.input = input;
+        }
+
+        Token nextToken() {
+            char ch = peek();
+            while (ch == ' ' || ch == '\r' || ch == '\t' || ch == '\n') {
+                if (ch == '\n')
+                    line++;
+                advance();
+                ch = peek();
+            }
+
+            start = current;
+            if (Character.isDigit(ch)) {
+                while (Character.isDigit(peek()))
+                    advance();
+                return new Token(TokenType.NUMBER, new String(input, start, current - start, StandardCharsets.UTF_8), line);
+            }
+
+            if (isAlpha(ch)) {
+                while (isAlpha(peek()) || Character.isDigit(peek()))
+                    advance();
+                String id = new String(input, start, current - start, StandardCharsets.UTF_8);
+                TokenType type = keywords.get(id);
+                return new Token(type == null ? TokenType.IDENT : type, id, line);
+            }
+
+            switch (ch) {
+                case '/':
+                    if (peekNext() == '/') {
+                        while (peek() != '\n' && peek() != 0)
+                            advance();
+                        return nextToken();
+                    } else if (peekNext() == '*') {
+                        advance();
+                        advance();
+                        while (peek() != 0 && !(peek() == '*' && peekNext() == '/')) {
+                            if (peek() == '\n')
+                                line++;
+                            advance();
+                        }
+                        advance();
+                        advance();
+                        return nextToken();
+                    }
+                    advance();
+                    return new Token(TokenType.SLASH, "/", line);
+                case '"':
+                    advance();
+                    start = current;
+                    while (peek() != '"' && peek() != 0)
+                        advance();
+                    var token = new Token(TokenType.STRING, new String(input, start, current - start, StandardCharsets.UTF_8), line);
+                    advance();
+                    return token;
+                case 0:
+                    return new Token(TokenType.EOF, "EOF", line);
+                default:
+                    advance();
+                    int symbol = SYMBOLS.indexOf(ch);
+                    if (symbol >= 0)
+                        return new Token(SYMBOL_TYPES[symbol], SYMBOLS.substring(symbol, symbol + 1), line);
+                    return new Token(TokenType.ILLEGAL, Character.toString(ch), line);
+            }
+        }
+
+        private void advance() {
+            if (peek() != 0)
+                current++;
+        }
+
+        private boolean isAlpha(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+        }
+
+        private char peek() {
+            return current < input.length ? (char) input[current] : 0;
+        }
+
+        private char peekNext() {
+            return current + 1 < input.length ? (char) input[current + 1] : 0;
+        }
+    }
+
+}
@@ -3,6 +3,8 @@ package br.ufma.ecp;
 import static org.junit.Assert.assertEquals;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
 import java.nio.charset.StandardCharsets;
 
 import org.junit.Test;
@@ -63,6 +65,161 @@ public class ScannerTest extends TestSupport {
         assertEquals(expectedResult, result.toString());
     }
 
-    
-    
+    @Test
+    public void testTokenBufferMatchesNextToken() throws IOException {
+        var input = fromFile("Square/SquareGame.jack").getBytes(StandardCharsets.UTF_8);
+
+        var tokens = new Scanner(input).tokenize();
+        var scanner = new Scanner(input);
+
+        for (int i = 0; i < tokens.size(); i++) {
+            Token tk = scanner.nextToken();
+            assertEquals(tk.type, tokens.type(i));
+            assertEquals(tk.lexeme, tokens.lexeme(i));
+            assertEquals(tk.line, tokens.line(i));
+            if (tk.type == TokenType.NUMBER)
+                assertEquals(Integer.parseInt(tk.lexeme), tokens.intValue(i));
+        }
+        assertEquals(TokenType.EOF, tokens.type(tokens.size() - 1));
+    }
+
+    @Test
+    public void testScannerWithByteBufferSlices() throws IOException {
+        var bytes = fromFile("Square/Square.jack").getBytes(StandardCharsets.UTF_8);
+        var expected = new Scanner(bytes).tokenize();
+
+        // fatia somente-leitura no meio de um array maior e um buffer fora do heap
+        var padded = new byte[bytes.length + 20];
+        System.arraycopy(bytes, 0, padded, 10, bytes.length);
+        var slice = ByteBuffer.wrap(padded, 10, bytes.length).slice().asReadOnlyBuffer();
+        var direct = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+
+        for (var input : new ByteBuffer[] { slice, direct }) {
+            var tokens = new Scanner(input).tokenize();
+            assertEquals(expected.size(), tokens.size());
+            for (int i = 0; i < tokens.size(); i++) {
+                assertEquals(expected.type(i), tokens.type(i));
+                assertEquals(expected.lexeme(i), tokens.lexeme(i));
+            }
+        }
+    }
+
+    @Test
+    public void testKeywords() {
+        var input = "while int class constructor function method field static var char boolean void "
+                + "true false null this let do if else return";
+        var scanner = new Scanner(input.getBytes(StandardCharsets.UTF_8));
+        for (Token tk = scanner.nextToken(); tk.type != TokenType.EOF; tk = scanner.nextToken()) {
+            assertEquals(tk.lexeme.toUpperCase(), tk.type.name());
+        }
+
+        // prefixos, sufixos e palavras com o mesmo hash continuam sendo identificadores
+        input = "whil whiles Int classe do_ iff el thiss tru falsey x i1 constructorr";
+        scanner = new Scanner(input.getBytes(StandardCharsets.UTF_8));
+        for (Token tk = scanner.nextToken(); tk.type != TokenType.EOF; tk = scanner.nextToken()) {
+            assertEquals(TokenType.IDENT, tk.type);
+        }
+    }
+
+    @Test
+    public void testSwarMatchesScalarScanner() throws IOException {
+        var input = new StringBuilder(fromFile("Square/SquareGame.jack"));
+        // comentarios e strings de todos os tamanhos ate passar de algumas palavras de 8 bytes
+        for (int n = 0; n < 40; n++) {
+            var body = "ab*c/d\n\"e".repeat(n).substring(0, n);
+            input.append("/*").append(body).append("**/ x").append(n).append('\n');
+            input.append("// ").append(body).append('\n');
+            input.append('"').append(body.replace('"', '\'')).append("\" ;\n");
+        }
+        var bytes = input.toString().getBytes(StandardCharsets.UTF_8);
+
+        var swar = new Scanner(ByteBuffer.wrap(bytes), true);
+        var scalar = new Scanner(ByteBuffer.wrap(bytes), false);
+        Token expected;
+        do {
+            expected = scalar.nextToken();
+            Token actual = swar.nextToken();
+            assertEquals(expected.type, actual.type);
+            assertEquals(expected.lexeme, actual.lexeme);
+            assertEquals(expected.line, actual.line);
+        } while (expected.type != TokenType.EOF);
+    }
+
+    @Test
+    public void testManyConsecutiveComments() {
+        int comments = 100_000;
+        var input = new StringBuilder("class");
+        for (int i = 0; i < comments; i++) {
+            input.append(i % 2 == 0 ? "\n// license line " + i : "\n/* license block " + i + " */");
+        }
+        input.append("\nMain");
+        var bytes = input.toString().getBytes(StandardCharsets.UTF_8);
+
+        for (boolean swar : new boolean[] { true, false }) {
+            var scanner = new Scanner(ByteBuffer.wrap(bytes), swar);
+            assertEquals(TokenType.CLASS, scanner.nextToken().type);
+            Token tk = scanner.nextToken();
+            assertEquals(TokenType.IDENT, tk.type);
+            assertEquals(comments + 2, tk.line);
+            assertEquals(TokenType.EOF, scanner.nextToken().type);
+        }
+    }
+
+    @Test
+    public void testUnterminatedComment() {
+        for (boolean swar : new boolean[] { true, false }) {
+            var diagnostics = new Diagnostics();
+            var input = "let x = 1;\n  /* sem fim\n\n";
+            var scanner = new Scanner(ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8)), "A.jack", diagnostics, swar);
+            var tokens = scanner.tokenize();
+
+            assertEquals(TokenType.EOF, tokens.type(tokens.size() - 1));
+            assertEquals(1, diagnostics.all().size());
+            assertEquals(new Diagnostics.Diagnostic("A.jack", 2, 3, "unterminated comment"), diagnostics.all().get(0));
+        }
+    }
+
+    @Test
+    public void testParallelScannerMatchesSequential() throws IOException {
+        var input = new StringBuilder();
+        input.append(fromFile("Square/SquareGame.jack"));
+        // pedacos que comecam dentro de comentarios e strings, inclusive strings com quebra de linha
+        input.append("let s = \"nao e /* comentario\nnem // este\";\n");
+        input.append("/* \"aspas\" dentro\n de um\n comentario */ let t = 1;\n");
+        input.append("// \" aspas soltas\n do x();\n");
+        input.append(fromFile("Square/Square.jack"));
+        var bytes = input.toString().getBytes(StandardCharsets.UTF_8);
+
+        var expected = new Scanner(bytes).tokenize();
+        var pool = new ForkJoinPool(4);
+        for (int chunkSize = 1; chunkSize <= 256; chunkSize *= 2) {
+            var tokens = ParallelScanner.tokenize(ByteBuffer.wrap(bytes), "", new Diagnostics(), pool, chunkSize, true);
+            assertEquals(expected.size(), tokens.size());
+            for (int i = 0; i < tokens.size(); i++) {
+                assertEquals(expected.type(i), tokens.type(i));
+                assertEquals(expected.start(i), tokens.start(i));
+                assertEquals(expected.length(i), tokens.length(i));
+                assertEquals(expected.line(i), tokens.line(i));
+            }
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void testLineIndex() {
+        var input = "ab\r\ncd\n\nlonga linha depois de linhas vazias\n";
+        var index = LineIndex.of(ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(5, index.lineCount());
+        assertEquals(1, index.line(0));
+        assertEquals(1, index.column(0));
+        assertEquals(1, index.line(3)); // o proprio '\n' ainda pertence a linha
+        assertEquals(2, index.line(4));
+        assertEquals(2, index.column(5));
+        assertEquals(3, index.line(7));
+        assertEquals(4, index.line(8));
+        assertEquals(7, index.column(14));
+        assertEquals(5, index.line(input.length()));
+    }
+
 }
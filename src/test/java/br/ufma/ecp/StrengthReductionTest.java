@@ -0,0 +1,141 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class StrengthReductionTest {
+
+    // trecho de um jogo de tabuleiro: enderecos na tela (32 palavras por linha) e casas de 16 pixels
+    private static final String PROGRAM = """
+        class Board {
+            field int rows, cols;
+
+            method void drawCell(int row, int col) {
+                var int address, i;
+                let address = 16384 + (row * 16 * 32) + col;
+                let i = 0;
+                while (i < 16) {
+                    do Memory.poke(address + (i * 32), -1);
+                    let i = i + 1;
+                }
+                return;
+            }
+
+            method int cellAt(int x, int y) {
+                return ((y / 16) * cols) + (x / 16);
+            }
+
+            method int area() {
+                return (rows * 16) * (cols * 16);
+            }
+
+            method int wrap(int x) {
+                return x * 3 / 1 + (5 * x) + (x * -1) + (x * 0);
+            }
+        }
+        """;
+
+    private static Parser compile(String input, CompilerOptions options) {
+        var parser = new Parser(input.getBytes(StandardCharsets.UTF_8)).withOptions(options);
+        parser.parse();
+        assertTrue(parser.diagnostics().all().toString(), !parser.diagnostics().hasErrors());
+        return parser;
+    }
+
+    private static int count(String vm, String line) {
+        int n = 0;
+        for (var l : vm.split("\n"))
+            if (l.equals(line))
+                n++;
+        return n;
+    }
+
+    @Test
+    public void testMultiplicationsByConstantsLeaveMathMultiply() {
+        var plain = compile(PROGRAM, new CompilerOptions()).VMOutput();
+        var reduced = compile(PROGRAM, CompilerOptions.optimized()).VMOutput();
+
+        assertEquals(11, count(plain, "call Math.multiply 2"));
+        // sobram so as multiplicacoes entre variaveis
+        assertEquals(2, count(reduced, "call Math.multiply 2"));
+        assertEquals(count(plain, "call Math.divide 2") - 1, count(reduced, "call Math.divide 2"));
+    }
+
+    // executa uma sequencia sem desvios com x em argument 0 e devolve o topo da pilha
+    private static int run(String vm, int x) {
+        short[] stack = new short[64];
+        short[] temp = new short[8];
+        int sp = 0;
+        for (var line : vm.split("\n")) {
+            var parts = line.split(" ");
+            switch (parts[0]) {
+                case "function" -> { }
+                case "push" -> {
+                    int index = Integer.parseInt(parts[2]);
+                    stack[sp++] = switch (parts[1]) {
+                        case "constant" -> (short) index;
+                        case "argument" -> (short) x;
+                        default -> temp[index];
+                    };
+                }
+                case "pop" -> temp[Integer.parseInt(parts[2])] = stack[--sp];
+                case "add" -> { sp--; stack[sp - 1] = (short) (stack[sp - 1] + stack[sp]); }
+                case "neg" -> stack[sp - 1] = (short) -stack[sp - 1];
+                case "not" -> stack[sp - 1] = (short) ~stack[sp - 1];
+                case "return" -> { return stack[sp - 1]; }
+                default -> throw new IllegalStateException(line);
+            }
+        }
+        throw new IllegalStateException("no return");
+    }
+
+    @Test
+    public void testDoubleAndAddMatchesMultiplication() {
+        int[] xs = { 0, 1, -1, 7, -13, 181, 32767, -32768, 12345 };
+        for (int c = -1100; c <= 1100; c++)
+            checkMultiply(c, xs);
+        // 32768 nao e uma constante valida, entao -32768 nao pode ser escrito como literal
+        for (int bit = 0; bit < 15; bit++) {
+            checkMultiply((short) (1 << bit), xs);
+            checkMultiply((short) -(1 << bit), xs);
+        }
+    }
+
+    private static void checkMultiply(int c, int[] xs) {
+        var literal = c < 0 ? "(-" + (-c) + ")" : String.valueOf(c);
+        var input = "class T { function int f(int x) { return x * " + literal + "; } }";
+        var vm = compile(input, CompilerOptions.optimized()).VMOutput();
+        if (vm.contains("Math.multiply"))
+            return; // sequencia longa demais, fica com a chamada
+        for (int x : xs)
+            assertEquals("x=" + x + " c=" + c, (short) (x * c), run(vm, x));
+    }
+
+    @Test
+    public void testPowersOfTwoUpTo512AreReduced() {
+        for (int c = 1; c <= 512; c *= 2) {
+            var input = "class T { function int f(int x) { return " + c + " * x; } }";
+            var vm = compile(input, CompilerOptions.optimized()).VMOutput();
+            assertTrue(vm, !vm.contains("Math.multiply"));
+            assertEquals(c * 3, run(vm, 3));
+        }
+    }
+
+    @Test
+    public void testDivisionByOne() {
+        var vm = compile("class T { function int f(int x) { return (x / 1) + (x / (-1)); } }",
+                CompilerOptions.optimized()).VMOutput();
+        assertEquals("""
+            function T.f 0
+            push argument 0
+            push argument 0
+            neg
+            add
+            return
+            """, vm);
+    }
+}
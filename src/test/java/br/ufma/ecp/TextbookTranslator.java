@@ -0,0 +1,119 @@
+package br.ufma.ecp;
+
+import static br.ufma.ecp.VMCode.*;
+
+import br.ufma.ecp.VMWriter.Segment;
+
+// tradutor VM -> Hack do livro (nand2tetris, projetos 7 e 8): um modelo fixo por comando
+public class TextbookTranslator {
+
+    private final StringBuilder out = new StringBuilder();
+    private VMCode code;
+    private String fileName;
+    private String function = "";
+    private int count;
+
+    public TextbookTranslator() {
+        emit("@256", "D=A", "@SP", "M=D");
+        writeCall("Sys.init", 0);
+    }
+
+    public void translate(String fileName, VMCode code) {
+        this.code = code;
+        this.fileName = fileName;
+        for (int i = 0; i < code.size(); i++) {
+            int insn = code.instruction(i);
+            switch (opcode(insn)) {
+                case PUSH -> writePush(VMCode.segment(insn), code.index(insn));
+                case POP -> writePop(VMCode.segment(insn), code.index(insn));
+                case ARITHMETIC -> writeArithmetic(VMCode.command(insn).name().toLowerCase());
+                case LABEL -> emit("(" + function + "$" + code.name(code.nameId(insn)) + ")");
+                case GOTO -> emit("@" + function + "$" + code.name(code.nameId(insn)), "0;JMP");
+                case IF_GOTO -> emit("@SP", "AM=M-1", "D=M", "@" + function + "$" + code.name(code.nameId(insn)), "D;JNE");
+                case CALL -> writeCall(code.name(code.nameId(insn)), code.count(insn));
+                case FUNCTION -> {
+                    function = code.name(code.nameId(insn));
+                    emit("(" + function + ")");
+                    for (int k = 0; k < code.count(insn); k++)
+                        writePush(Segment.CONST, 0);
+                }
+                default -> writeReturn();
+            }
+        }
+    }
+
+    public String output() {
+        return out.toString();
+    }
+
+    private void writePush(Segment segment, int index) {
+        switch (segment) {
+            case CONST -> emit("@" + index, "D=A");
+            case LOCAL, ARG, THIS, THAT -> emit("@" + base(segment), "D=M", "@" + index, "A=D+A", "D=M");
+            case POINTER -> emit("@" + (3 + index), "D=M");
+            case TEMP -> emit("@" + (5 + index), "D=M");
+            default -> emit("@" + fileName + "." + index, "D=M");
+        }
+        emit("@SP", "A=M", "M=D", "@SP", "M=M+1");
+    }
+
+    private void writePop(Segment segment, int index) {
+        switch (segment) {
+            case LOCAL, ARG, THIS, THAT -> emit("@" + base(segment), "D=M", "@" + index, "D=D+A");
+            case POINTER -> emit("@" + (3 + index), "D=A");
+            case TEMP -> emit("@" + (5 + index), "D=A");
+            default -> emit("@" + fileName + "." + index, "D=A");
+        }
+        emit("@R13", "M=D", "@SP", "AM=M-1", "D=M", "@R13", "A=M", "M=D");
+    }
+
+    private static String base(Segment segment) {
+        return switch (segment) {
+            case LOCAL -> "LCL";
+            case ARG -> "ARG";
+            case THIS -> "THIS";
+            default -> "THAT";
+        };
+    }
+
+    private void writeArithmetic(String command) {
+        switch (command) {
+            case "neg" -> emit("@SP", "A=M-1", "M=-M");
+            case "not" -> emit("@SP", "A=M-1", "M=!M");
+            case "add" -> emit("@SP", "AM=M-1", "D=M", "A=A-1", "M=D+M");
+            case "sub" -> emit("@SP", "AM=M-1", "D=M", "A=A-1", "M=M-D");
+            case "and" -> emit("@SP", "AM=M-1", "D=M", "A=A-1", "M=D&M");
+            case "or" -> emit("@SP", "AM=M-1", "D=M", "A=A-1", "M=D|M");
+            default -> {
+                int n = count++;
+                emit("@SP", "AM=M-1", "D=M", "A=A-1", "D=M-D", "@TRUE" + n, "D;J" + command.toUpperCase(),
+                        "@SP", "A=M-1", "M=0", "@END" + n, "0;JMP",
+                        "(TRUE" + n + ")", "@SP", "A=M-1", "M=-1", "(END" + n + ")");
+            }
+        }
+    }
+
+    private void writeCall(String name, int nArgs) {
+        String ret = "RET" + count++;
+        emit("@" + ret, "D=A", "@SP", "A=M", "M=D", "@SP", "M=M+1");
+        for (String register : new String[] { "LCL", "ARG", "THIS", "THAT" })
+            emit("@" + register, "D=M", "@SP", "A=M", "M=D", "@SP", "M=M+1");
+        emit("@SP", "D=M", "@" + (nArgs + 5), "D=D-A", "@ARG", "M=D",
+                "@SP", "D=M", "@LCL", "M=D", "@" + name, "0;JMP", "(" + ret + ")");
+    }
+
+    private void writeReturn() {
+        emit("@LCL", "D=M", "@R13", "M=D",
+                "@5", "A=D-A", "D=M", "@R14", "M=D",
+                "@SP", "AM=M-1", "D=M", "@ARG", "A=M", "M=D",
+                "@ARG", "D=M+1", "@SP", "M=D");
+        for (String register : new String[] { "THAT", "THIS", "ARG", "LCL" })
+            emit("@R13", "AM=M-1", "D=M", "@" + register, "M=D");
+        emit("@R14", "A=M", "0;JMP");
+    }
+
+    private void emit(String... lines) {
+        for (String line : lines)
+            out.append(line).append('\n');
+    }
+}
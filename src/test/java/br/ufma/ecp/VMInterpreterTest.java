@@ -0,0 +1,200 @@
+package br.ufma.ecp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class VMInterpreterTest extends TestSupport {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static final String LIST = """
+        class List {
+            field int data;
+            field List next;
+
+            constructor List new(int car, List cdr) {
+                let data = car;
+                let next = cdr;
+                return this;
+            }
+
+            method int sum() {
+                if (next = null) {
+                    return data;
+                }
+                return data + next.sum();
+            }
+
+            method void dispose() {
+                if (~(next = null)) {
+                    do next.dispose();
+                }
+                do Memory.deAlloc(this);
+                return;
+            }
+        }
+        """;
+
+    static final String MAIN = """
+        class Main {
+            static int calls;
+
+            function int gcd(int a, int b) {
+                let calls = calls + 1;
+                if (b = 0) {
+                    return a;
+                }
+                return Main.gcd(b, a - ((a / b) * b));
+            }
+
+            function int main() {
+                var List list;
+                var int i;
+                var String s;
+                let list = null;
+                let i = 1;
+                while (i < 11) {
+                    let list = List.new(i * i, list);
+                    let i = i + 1;
+                }
+                do Output.printString("sum: ");
+                do Output.printInt(list.sum());
+                do Output.println();
+                do list.dispose();
+                let s = String.new(6);
+                do s.setInt(-1234);
+                do Output.printString(s);
+                do Output.printChar(32);
+                do Output.printInt(s.intValue() + 1);
+                do Output.println();
+                do Output.printInt(Main.gcd(1071, 462));
+                do Output.printChar(32);
+                do Output.printInt(Math.sqrt(1000));
+                return calls;
+            }
+        }
+        """;
+
+    private static VMInterpreter load(CompilerOptions options, Map<String, String> sources) {
+        var interpreter = new VMInterpreter();
+        for (var entry : sources.entrySet()) {
+            var parser = new Parser(entry.getValue().getBytes(StandardCharsets.UTF_8)).withOptions(options);
+            parser.parse();
+            assertTrue(parser.diagnostics().all().toString(), !parser.diagnostics().hasErrors());
+            if (options.optimize())
+                App.optimize(parser.vmCode(), new LinkedHashMap<>());
+            interpreter.load(entry.getKey(), parser.vmCode());
+        }
+        return interpreter;
+    }
+
+    private static Map<String, String> program() {
+        Map<String, String> sources = new LinkedHashMap<>();
+        sources.put("List", LIST);
+        sources.put("Main", MAIN);
+        return sources;
+    }
+
+    @Test
+    public void testRunsMainWithTheBuiltInOS() {
+        var interpreter = load(new CompilerOptions(), program());
+        assertTrue(interpreter.run("Main.main"));
+        assertEquals("sum: 385\n-1234 -1233\n21 31", interpreter.output());
+        assertEquals(4, interpreter.returnValue());
+
+        var counts = interpreter.counts();
+        assertEquals(interpreter.instructions(), counts.values().stream().mapToLong(Long::longValue).sum());
+        assertTrue(counts.containsKey("List.sum"));
+        assertEquals(Long.valueOf(10), interpreter.nativeCalls().get("Memory.alloc"));
+        assertEquals(Long.valueOf(10), interpreter.nativeCalls().get("Memory.deAlloc"));
+    }
+
+    @Test
+    public void testOptimizedCodeBehavesTheSameWithFewerInstructions() {
+        var plain = load(new CompilerOptions(), program());
+        var optimized = load(CompilerOptions.optimized(), program());
+        assertTrue(plain.run("Main.main"));
+        assertTrue(optimized.run("Main.main"));
+        assertEquals(plain.output(), optimized.output());
+        assertEquals(plain.returnValue(), optimized.returnValue());
+        assertTrue(optimized.instructions() + " >= " + plain.instructions(),
+                optimized.instructions() < plain.instructions());
+    }
+
+    @Test
+    public void testBudgetStopsAnInfiniteLoop() {
+        var interpreter = load(new CompilerOptions(), Map.of("Main", """
+            class Main {
+                function void main() {
+                    var int i;
+                    while (true) {
+                        let i = i + 1;
+                    }
+                    return;
+                }
+            }
+            """)).withBudget(1000);
+        assertFalse(interpreter.run("Main.main"));
+        assertEquals(1000, interpreter.instructions());
+        assertEquals(Long.valueOf(1000), interpreter.counts().get("Main.main"));
+    }
+
+    @Test
+    public void testSysErrorHalts() {
+        var interpreter = load(new CompilerOptions(), Map.of("Main", """
+            class Main {
+                function void main() {
+                    do Output.printInt(1 / 0);
+                    do Output.printInt(7);
+                    return;
+                }
+            }
+            """));
+        assertTrue(interpreter.run("Main.main"));
+        assertEquals("ERR3", interpreter.output());
+    }
+
+    @Test
+    public void testKeyboardReadsTheInput() {
+        var interpreter = load(new CompilerOptions(), Map.of("Main", """
+            class Main {
+                function int main() {
+                    return Keyboard.readInt("n? ") * 2;
+                }
+            }
+            """)).withInput("21\n");
+        assertTrue(interpreter.run("Main.main"));
+        assertEquals("n? 21\n", interpreter.output());
+        assertEquals(42, interpreter.returnValue());
+    }
+
+    @Test
+    public void testLoadsADirectoryOfVMFiles() throws IOException {
+        File directory = folder.newFolder("Square");
+        for (var file : new String[] { "Main", "Square", "SquareGame" }) {
+            var parser = new Parser(fromFile("Square/" + file + ".jack").getBytes(StandardCharsets.UTF_8));
+            parser.parse();
+            Files.writeString(new File(directory, file + ".vm").toPath(), parser.VMOutput());
+        }
+        // o jogo espera teclas para sempre: so o orcamento o para
+        var interpreter = new VMInterpreter().load(directory).withBudget(100_000);
+        assertFalse(interpreter.run("Main.main"));
+        assertTrue(interpreter.counts().containsKey("SquareGame.run"));
+        assertTrue(interpreter.nativeCalls().containsKey("Screen.drawRectangle"));
+        assertNotEquals(0, interpreter.ram()[JackOS.SCREEN]);
+    }
+}
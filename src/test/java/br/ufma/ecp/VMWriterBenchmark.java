@@ -0,0 +1,100 @@
+package br.ufma.ecp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import br.ufma.ecp.VMWriter.Command;
+import br.ufma.ecp.VMWriter.Segment;
+
+// VMWriter com bytes pre-codificados contra a versao com String.format, repetindo as instrucoes do Square
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VMWriterBenchmark {
+
+    private record Instruction(String op, String name, Segment segment, Command command, int n) {
+    }
+
+    private List<Instruction> program = new ArrayList<>();
+
+    @Setup
+    public void setup() throws IOException {
+        for (var file : new String[] { "Square/Square.jack", "Square/SquareGame.jack", "Square/Main.jack" }) {
+            var parser = new Parser(TestSupport.fromFile(file).getBytes(StandardCharsets.UTF_8));
+            parser.parse();
+            for (var line : parser.VMOutput().split("\n")) {
+                var parts = line.split(" ");
+                switch (parts[0]) {
+                    case "push", "pop" -> program.add(new Instruction(parts[0], null, segment(parts[1]), null, Integer.parseInt(parts[2])));
+                    case "call", "function" -> program.add(new Instruction(parts[0], parts[1], null, null, Integer.parseInt(parts[2])));
+                    case "label", "goto", "if-goto" -> program.add(new Instruction(parts[0], parts[1], null, null, 0));
+                    case "return" -> program.add(new Instruction(parts[0], null, null, null, 0));
+                    default -> program.add(new Instruction("arithmetic", null, null, Command.valueOf(parts[0].toUpperCase()), 0));
+                }
+            }
+        }
+    }
+
+    private static Segment segment(String value) {
+        for (var segment : Segment.values())
+            if (segment.value.equals(value))
+                return segment;
+        throw new IllegalArgumentException(value);
+    }
+
+    @Benchmark
+    public String bytes() {
+        var writer = new VMWriter();
+        for (var i : program) {
+            switch (i.op) {
+                case "push" -> writer.writePush(i.segment, i.n);
+                case "pop" -> writer.writePop(i.segment, i.n);
+                case "call" -> writer.writeCall(i.name, i.n);
+                case "function" -> writer.writeFunction(i.name, i.n);
+                case "label" -> writer.writeLabel(i.name);
+                case "goto" -> writer.writeGoto(i.name);
+                case "if-goto" -> writer.writeIf(i.name);
+                case "return" -> writer.writeReturn();
+                default -> writer.writeArithmetic(i.command);
+            }
+        }
+        return writer.vmOutput();
+    }
+
+    @Benchmark
+    public String stringFormat() {
+        var vmOutput = new StringBuilder();
+        for (var i : program) {
+            switch (i.op) {
+                case "push" -> vmOutput.append(String.format("push %s %d\n", i.segment.value, i.n));
+                case "pop" -> vmOutput.append(String.format("pop %s %d\n", i.segment.value, i.n));
+                case "call" -> vmOutput.append(String.format("call %s %d\n", i.name, i.n));
+                case "function" -> vmOutput.append(String.format("function %s %d\n", i.name, i.n));
+                case "label" -> vmOutput.append(String.format("label %s\n", i.name));
+                case "goto" -> vmOutput.append(String.format("goto %s\n", i.name));
+                case "if-goto" -> vmOutput.append(String.format("if-goto %s\n", i.name));
+                case "return" -> vmOutput.append(String.format("return\n"));
+                default -> vmOutput.append(String.format("%s\n", i.command.name().toLowerCase()));
+            }
+        }
+        return vmOutput.toString();
+    }
+
+}